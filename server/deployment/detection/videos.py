@@ -37,7 +37,7 @@ OPTIONS = Options()
 # Video
 REP_DEM_JAR = os.path.join(OPTIONS.JB.JAR_DIR, 'video_parser.jar')
 REP_DEM_JARBASE = [r'java', '-jar', REP_DEM_JAR, '-t', 'parse']
-REP_DEM_JARARGS = { 'video': '-v', 'output': '-o', 'skip': '-s', 'input': '-f' }
+REP_DEM_JARARGS = { 'video': '-v', 'output': '-o', 'skip': '-s', 'input': '-f', 'format': '-of', 'growing': '-g' }
 
 
 
@@ -173,6 +173,64 @@ class Video:
         return data
         
         
+    @staticmethod
+    def load_binary(file):
+        """
+        Loads info from a binary results file into a format that can be used
+        directly to create a new Video. See BinaryResultWriter.java for the
+        file layout.
+        
+        Args:
+            file (str): path to the binary file on disk, as output by the video
+                processor (e.g. video_parser.jar) with -of binary.
+            
+        Returns:
+            dict: same as Video.load_csv()
+        """
+        import struct
+        fH = open(file, 'rb')
+        try:
+            read_int = lambda: struct.unpack('>i', fH.read(4))[0]
+            read_utf = lambda: fH.read(struct.unpack('>H', fH.read(2))[0]).decode('utf-8')
+            if fH.read(4) != 'VGVR': raise ValueError('%s is not a binary results file.' % file)
+            read_int()
+            keys = [read_utf() for i in range(read_int())]
+            labels = [[] for k in keys]
+            data = dict((k, []) for k in keys)
+            rows = read_int()
+            while rows > 0:
+                for i in range(len(keys)):
+                    labels[i].extend(read_utf() for j in range(read_int()))
+                    
+                struct.unpack('>%di' % rows, fH.read(4*rows))
+                times = struct.unpack('>%dd' % rows, fH.read(8*rows))
+                for i in range(len(keys)):
+                    codes = struct.unpack('>%di' % rows, fH.read(4*rows))
+                    data[keys[i]].extend([times[r], 'null' if codes[r] < 0 else labels[i][codes[r]]] for r in range(rows))
+                    
+                rows = read_int()
+                
+        finally:
+            fH.close()
+            
+        return data
+        
+        
+    @staticmethod
+    def from_binary(file):
+        """
+        Creates a new Video from a binary results file that has been processed
+        from a video file.
+        
+        Args:
+            file (str): path to the binary file on disk
+            
+        Returns:
+            Video: a new Video loaded from the file
+        """
+        return Video(Video.load_binary(file))
+        
+        
     @staticmethod
     def from_csv(file):
         """
@@ -188,7 +246,7 @@ class Video:
         
         
     @staticmethod
-    def from_video(video, validLabelsFile=None, skip=OPTIONS.VP.PARSE_SKIP_DEFAULT):
+    def from_video(video, validLabelsFile=None, skip=OPTIONS.VP.PARSE_SKIP_DEFAULT, growing=False):
         """
         Creates a new Video from a video file using the java video processor.
         
@@ -201,6 +259,11 @@ class Video:
                 
             skip (float): seconds between queries of the video. Default is
                 video_parser.parse_skip_default
+                
+            growing (bool): (optional) whether the video is still being
+                written, e.g. downloaded. If True, parsing starts on what has
+                been written and waits for the rest until the writer creates
+                an empty file at the video path plus '.done'. Default is False
             
         Returns:
             Video: a new Video after processing the video file
@@ -218,6 +281,8 @@ class Video:
         if not os.path.exists(OPTIONS.JB.SCRATCH): os.makedirs(OPTIONS.JB.SCRATCH)
         output = os.path.join(OPTIONS.JB.SCRATCH, str(uuid4()))
         jarCall.extend([REP_DEM_JARARGS['output'], output])
+        jarCall.extend([REP_DEM_JARARGS['format'], OPTIONS.VP.OUTPUT_FORMAT])
+        if growing: jarCall.append(REP_DEM_JARARGS['growing'])
         
         # call the processor and return the output
         cdir = os.path.abspath(os.curdir)
@@ -227,6 +292,7 @@ class Video:
             if not os.path.exists(output):
                 raise RuntimeError('Video processor failed to execute properly.')
                 
+            if OPTIONS.VP.OUTPUT_FORMAT == 'binary': return Video.from_binary(output)
             return Video.from_csv(output)
             
         finally:
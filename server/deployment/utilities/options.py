@@ -128,6 +128,7 @@ class VideoParserOptions:
         self.CSV_COL_DETECTOR = m.get_string('csv_column_detector')
         self.PARSE_SKIP_DEFAULT = m.get_float('parse_skip_default')
         self.DETECTORS = m.get_list_string('detectors')
+        self.OUTPUT_FORMAT = m.get_string('output_format')
         
         
 class JobOptions:
@@ -17,19 +17,20 @@ limitations under the License.
 
 package employment.detectors;
 
+import image_libraries.CaptureWriter;
+import image_libraries.FrameConverter;
 import org.opencv.core.Mat;
 import training.ann.networks.ANN;
+import training.ann.networks.Network;
 import training.math.Matrix2D;
-import training.trainers.ClockTrainerDigitANN;
+import training.trainers.ClockSegmenter;
 import options.Options;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.List;
+import java.util.function.ObjLongConsumer;
 
 /**
  * This class is the detector for game clock time.
@@ -46,27 +47,75 @@ public class ClockDetectorDigitANN extends Detector {
         }
     }
     public static final String KEY = options.CD.KEY();
+    public static final String COUNT_CACHE_HITS = KEY + ":glyph_cache_hits";
+    public static final String COUNT_CACHE_LOOKUPS = KEY + ":glyph_cache_lookups";
+    public static final String COUNT_SAVES_DROPPED = KEY + ":saves_dropped";
+
+    // where glyphs are saved with their predictions (if anywhere), one of
+    // every saveEvery, by a writer shared by all clock detectors. Number of
+    // glyphs seen toward the next save, and saves dropped since the counts
+    // were last drained
     private File saveTo = null;
+    private int saveEvery = Math.max(1, options.CD.SAVE_EVERY());
+    private long saveCount = 0;
+    private long savesDropped = 0;
+    private static CaptureWriter captures = null;
+    private static final char DIVIDER = ':';
     private Matrix2D preSample;
+    private FrameConverter converter = new FrameConverter();
+    private ClockSegmenter segmenter = new ClockSegmenter();
     private List<String> secTenOptions;
     private List<String> numberOptions;
 
+    // network output rows of the valid glyphs for each character, in the
+    // order they are checked, and the identifier of each output row
+    private static final int[] NO_ROWS = new int[0];
+    private int[] secTenRows;
+    private int[] numberRows;
+    private String[] rowIDs;
+
+    // network that predicts every character of a frame in one pass, with the
+    // valid rows of each character (by number of characters) and the best rows
+    private ANN batchNetwork;
+    private int batchSamples = -1;
+    private int[][][] sampleRows = new int[0][][];
+    private int[][] checkRows = new int[0][];
+    private int[] predicted = new int[0];
+    private int[] best = new int[0];
+
+    // predictions of glyph shapes seen before, and how often it was asked
+    // and answered since the counts were last drained
+    private GlyphCache cache = (options.CD.GLYPH_CACHE() > 0) ? new GlyphCache(options.CD.GLYPH_CACHE()) : null;
+    private long[] keys = new long[0];
+    private long cacheHits = 0;
+    private long cacheLookups = 0;
+
+    // the label being built, and strings of labels already built
+    private char[] label = new char[16];
+    private LabelCache labels = new LabelCache();
+
     public ClockDetectorDigitANN() throws IOException {
         super(options.CD.NETWORK().getAbsolutePath(), KEY, options.CD.ROI());
+        this.sampleInterval = options.CD.SAMPLE_INTERVAL();
         if (options.CD.SAVE()) {
             this.saveTo = new File(options.get_jar().getParentFile(), UUID.randomUUID().toString());
             if (!this.saveTo.mkdirs()) {
-                System.out.println("Failed to make output directory for clock detection images. Failure is imminent.");
+                System.out.println("Failed to make output directory for clock detection images. They will not be saved.");
+                this.saveTo = null;
             }
             else {
                 System.out.println("Clock detection results will be saved to " + this.saveTo.getAbsolutePath());
+                capture_writer();
             }
         }
     }
 
 
-    public void initialize() throws IOException {
-        this.network = ANN.load(this.networkPath.getAbsolutePath());
+    public Network load_network() throws IOException { return ANN.load(this.networkPath.getAbsolutePath()); }
+
+
+    public void initialize(Network network) throws IOException {
+        this.network = ((ANN) network).share();
         this.secTenOptions = new ArrayList<>();
         this.numberOptions = new ArrayList<>();
         for (String key : ((ANN) this.network).get_id2num().keySet()) {
@@ -81,6 +130,42 @@ public class ClockDetectorDigitANN extends Detector {
             else if (key.startsWith("8")) { this.numberOptions.add(key); }
             else if (key.startsWith("9")) { this.numberOptions.add(key); }
         }
+        this.secTenRows = this.rows_of(this.secTenOptions);
+        this.numberRows = this.rows_of(this.numberOptions);
+        Map<Integer, String> num2id = ((ANN) this.network).get_num2id();
+        this.rowIDs = new String[Collections.max(num2id.keySet()) + 1];
+        for (Map.Entry<Integer, String> entry : num2id.entrySet()) { this.rowIDs[entry.getKey()] = entry.getValue(); }
+        this.batchNetwork = null;
+        this.batchSamples = -1;
+        if (this.cache != null) { this.cache.clear(); }
+    }
+
+
+    /** Gets the network output rows of the given glyph identifiers. */
+    private int[] rows_of(List<String> ids) {
+        Map<String, Integer> id2num = ((ANN) this.network).get_id2num();
+        int[] rows = new int[ids.size()];
+        for (int i = 0; i < rows.length; i++) { rows[i] = id2num.get(ids.get(i)); }
+        return rows;
+    }
+
+
+    /**
+     * Gets the valid network output rows of each character of a clock with
+     * the given number of characters, e.g. none for the divider.
+     */
+    private int[][] sample_rows(int samples) {
+        if (samples >= this.sampleRows.length) { this.sampleRows = Arrays.copyOf(this.sampleRows, samples + 1); }
+        if (this.sampleRows[samples] == null) {
+            int[][] rows = new int[samples][];
+            for (int i = 0; i < samples; i++) {
+                if (i == samples - 3) { rows[i] = NO_ROWS; }
+                else if (i == samples - 2) { rows[i] = this.secTenRows; }
+                else { rows[i] = this.numberRows; }
+            }
+            this.sampleRows[samples] = rows;
+        }
+        return this.sampleRows[samples];
     }
 
 
@@ -89,6 +174,14 @@ public class ClockDetectorDigitANN extends Detector {
 
     /**
      * Detects the given object in the frame using the assigned detection object.
+     * <p>
+     * All characters of the clock are predicted in one pass through the
+     * network. Characters whose exact sample was seen before take the
+     * glyph predicted then (see clock_detector.glyph_cache_size), and the
+     * network is skipped when every character was seen before. Reuses the
+     * same buffers for every frame, and the same string for every repeat of
+     * a label, so detection makes no garbage once warmed up (unless saving
+     * detection images).
      *
      * @param frame opencv Mat frame
      * @return detected label
@@ -99,56 +192,259 @@ public class ClockDetectorDigitANN extends Detector {
         if (this.network == null) { this.initialize(); }
 
         // convert the opencv frame to a version we can use in detection
-        int rows;
-        int cols;
-        rows = frame.rows();
-        cols = frame.cols();
-        if (this.preSample == null) { this.preSample = new Matrix2D(rows, cols); }
-        ClockTrainerDigitANN.frame_to_matrix2d(frame, this.preSample);
+        if (this.preSample == null) { this.preSample = new Matrix2D(frame.rows(), frame.cols()); }
+        this.converter.to_matrix2d(frame, this.preSample);
 
         // segment characters into several samples
-        ArrayList<Matrix2D> samples;
-        samples = ClockTrainerDigitANN.segment_characters(this.preSample);
+        int samples = this.segmenter.segment(this.preSample);
+        if (samples == 0) { return this.labels.get(this.label, 0); }
+
+        // take the glyphs of characters seen before from the cache, then pass
+        // the rest through the network at once and get their predictions
+        Matrix2D inputs = this.segmenter.get_inputs();
+        if (inputs.c() != this.batchSamples) {
+            this.batchNetwork = ((ANN) this.network).share(inputs.c());
+            this.batchSamples = inputs.c();
+            this.checkRows = new int[inputs.c()][];
+            this.predicted = new int[inputs.c()];
+            this.best = new int[inputs.c()];
+            this.keys = new long[inputs.c()];
+        }
+        int[][] rows = this.sample_rows(samples);
+        int misses = 0;
+        for (int i = 0; i < this.checkRows.length; i++) {
+            this.checkRows[i] = NO_ROWS;
+            if ((i >= samples) || (rows[i] == NO_ROWS)) { continue; }
+            this.keys[i] = this.cache_key(i, rows[i]);
+            this.best[i] = (this.keys[i] < 0) ? -1 : this.cache.get(this.keys[i], this.segmenter.get_segment(i));
+            if (this.keys[i] >= 0) {
+                this.cacheLookups += 1;
+                if (this.best[i] >= 0) { this.cacheHits += 1; }
+            }
+            if (this.best[i] < 0) {
+                this.checkRows[i] = rows[i];
+                misses += 1;
+            }
+        }
+        if (misses > 0) {
+            this.batchNetwork.predict_rows(inputs, this.checkRows, this.predicted);
+            for (int i = 0; i < samples; i++) {
+                if (this.checkRows[i] == NO_ROWS) { continue; }
+                this.best[i] = this.predicted[i];
+                if ((this.keys[i] >= 0) && (this.best[i] >= 0)) { this.cache.put(this.keys[i], this.segmenter.get_segment(i), this.best[i]); }
+            }
+        }
 
-        // pass the samples through the network, get their prediction and
         // reassemble predicted label
-        StringBuilder label = new StringBuilder();
-        Matrix2D sample;
-        int dividerIndex = samples.size() - 3;
-        int minTenIndex = dividerIndex + 1;
-        List<String> validIDs;
-        for (int i = 0; i < samples.size(); i++) {
-            sample = samples.get(i);
+        int dividerIndex = samples - 3;
+        int length = 0;
+        for (int i = 0; i < samples; i++) {
             if (i == dividerIndex) {
-                label.append(":");
+                length = this.append(length, DIVIDER);
                 continue;
             }
-            else if (i == minTenIndex) { validIDs = this.secTenOptions; }
-            else { validIDs = this.numberOptions; }
-            String glyphID = this.network.predict(ClockTrainerDigitANN.prepare_input(sample), validIDs);
-            if (glyphID.length() > 0) {
-                label.append(glyphID.substring(0,1));
-
-                // save results of prediction
-                if (this.saveTo != null) {
-                    BufferedImage bwImage = new BufferedImage(sample.c(), sample.r(), BufferedImage.TYPE_BYTE_GRAY);
-                    double lum;
-                    for (int y = 0; y < sample.r(); y++) {
-                        for (int x = 0; x < sample.c(); x++) {
-                            lum = sample.get(y, x);
-                            if (lum > options.CT.THRESHOLD()) {
-                                bwImage.setRGB(x, y, Color.BLACK.getRGB());
-                            } else {
-                                bwImage.setRGB(x, y, Color.WHITE.getRGB());
-                            }
-                        }
-                    }
-                    File outputFile = new File(this.saveTo, String.format("%s_%s.png", glyphID.replace(":", "div"), UUID.randomUUID().toString()));
-                    ImageIO.write(bwImage, "png", outputFile);
-                }
+            if (this.best[i] < 0) { continue; }
+            String glyphID = this.rowIDs[this.best[i]];
+            length = this.append(length, glyphID.charAt(0));
+
+            // save results of prediction
+            if (this.saveTo != null) { this.save_sample(this.segmenter.get_segment(i), glyphID); }
+        }
+        return this.labels.get(this.label, length);
+    }
+
+
+    /**
+     * Gets the cache key of a character from the last segmentation: a hash
+     * of the exact values the network sees, and a bit for which glyphs were
+     * valid. Returns -1 if there is no cache.
+     */
+    private long cache_key(int i, int[] rows) {
+        if (this.cache == null) { return -1; }
+        Matrix2D segment = this.segmenter.get_segment(i);
+        long hash = 0;
+        for (int c = 0; c < segment.size(); c++) {
+            hash = (hash + Double.doubleToLongBits(segment.get_by_flat(c))) * 0x9E3779B97F4A7C15L;
+        }
+        return ((hash << 1) | ((rows == this.secTenRows) ? 1 : 0)) & Long.MAX_VALUE;
+    }
+
+
+    /** Passes the glyph cache hits and lookups, and saves dropped, since the last call. */
+    public void drain_counts(ObjLongConsumer<String> counter) {
+        if (this.cacheLookups > 0) {
+            counter.accept(COUNT_CACHE_HITS, this.cacheHits);
+            counter.accept(COUNT_CACHE_LOOKUPS, this.cacheLookups);
+            this.cacheHits = 0;
+            this.cacheLookups = 0;
+        }
+        if (this.savesDropped > 0) {
+            counter.accept(COUNT_SAVES_DROPPED, this.savesDropped);
+            this.savesDropped = 0;
+        }
+    }
+
+
+    /** Adds a character to the label being built, returning the new length. */
+    private int append(int length, char c) {
+        if (length == this.label.length) { this.label = Arrays.copyOf(this.label, 2 * length); }
+        this.label[length] = c;
+        return length + 1;
+    }
+
+
+    /**
+     * Queues one of every saveEvery character samples to be saved as a black
+     * and white image named by its predicted glyph.
+     */
+    private void save_sample(Matrix2D sample, String glyphID) {
+        if ((this.saveCount++ % this.saveEvery) != 0) { return; }
+        byte[] pixels = new byte[sample.size()];
+        double threshold = options.CT.THRESHOLD();
+        for (int y = 0; y < sample.r(); y++) {
+            for (int x = 0; x < sample.c(); x++) {
+                pixels[y*sample.c() + x] = (sample.get(y, x) > threshold) ? 0 : (byte) 255;
+            }
+        }
+        if (!captures.offer(this.saveTo, glyphID.replace(":", "div"), pixels, sample.c(), sample.r())) { this.savesDropped += 1; }
+    }
+
+
+    /** Gets the writer shared by clock detectors that save their predictions, starting it if needed. */
+    private static synchronized CaptureWriter capture_writer() {
+        if (captures == null) { captures = new CaptureWriter(options.CD.SAVE_QUEUE(), "clock-captures"); }
+        return captures;
+    }
+
+
+
+    /**
+     * Predicted glyphs (network output rows) of character samples, by keys
+     * from <code>cache_key</code>, in a fixed-size open addressing table.
+     * Each entry keeps a copy of its sample, and a lookup only hits when
+     * the sample matches exactly, so a hit always gives what the network
+     * would. A key that finds no free slot near its home slot replaces
+     * whatever is there.
+     */
+    private static class GlyphCache {
+        private static final int PROBES = 8;
+        private long[] keys;
+        private int[] values;
+        private double[] samples = null;
+        private int sampleSize = 0;
+
+        private GlyphCache(int size) {
+            int capacity = Integer.highestOneBit(Math.max(PROBES, 2 * size - 1));
+            this.keys = new long[capacity];
+            this.values = new int[capacity];
+            this.clear();
+        }
+
+        private void clear() { Arrays.fill(this.keys, -1); }
+
+        /** Gets the glyph of the key and sample, or -1 if it isnt cached. */
+        private int get(long key, Matrix2D sample) {
+            int mask = this.keys.length - 1;
+            int slot = home(key, mask);
+            for (int p = 0; p < PROBES; p++) {
+                if ((this.keys[slot] == key) && this.holds(slot, sample)) { return this.values[slot]; }
+                if (this.keys[slot] == -1) { return -1; }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private void put(long key, Matrix2D sample, int value) {
+            if (this.samples == null) {
+                this.sampleSize = sample.size();
+                this.samples = new double[this.keys.length * this.sampleSize];
             }
+            if (sample.size() != this.sampleSize) { return; }
+            int mask = this.keys.length - 1;
+            int home = home(key, mask);
+            int slot = home;
+            for (int p = 0; p < PROBES; p++) {
+                if (((this.keys[slot] == key) && this.holds(slot, sample)) || (this.keys[slot] == -1)) { break; }
+                slot = (slot + 1) & mask;
+            }
+            if (((this.keys[slot] != key) || !this.holds(slot, sample)) && (this.keys[slot] != -1)) { slot = home; }
+            this.keys[slot] = key;
+            this.values[slot] = value;
+            for (int c = 0; c < this.sampleSize; c++) { this.samples[slot*this.sampleSize + c] = sample.get_by_flat(c); }
+        }
+
+        /** Whether the slot holds exactly the given sample. */
+        private boolean holds(int slot, Matrix2D sample) {
+            if ((this.samples == null) || (sample.size() != this.sampleSize)) { return false; }
+            for (int c = 0; c < this.sampleSize; c++) {
+                if (this.samples[slot*this.sampleSize + c] != sample.get_by_flat(c)) { return false; }
+            }
+            return true;
+        }
+
+        private static int home(long key, int mask) {
+            long h = key * 0x9E3779B97F4A7C15L;
+            return (int) (h >>> 32) & mask;
         }
-        return label.toString();
     }
 
+
+
+    /**
+     * Strings of the clock labels seen so far, looked up without making a
+     * string. Labels of digits and dividers are keyed by their characters in
+     * base 12; anything else just gets a new string.
+     */
+    private static class LabelCache {
+        private static final int MAX_KEYED_LENGTH = 8;
+        private int[] keys = new int[64];
+        private String[] values = new String[64];
+        private int size = 0;
+
+        private String get(char[] label, int length) {
+            if (length == 0) { return ""; }
+            if (length > MAX_KEYED_LENGTH) { return new String(label, 0, length); }
+            int key = 0;
+            char c;
+            for (int i = 0; i < length; i++) {
+                c = label[i];
+                if ((c >= '0') && (c <= '9')) { key = key * 12 + (c - '0' + 1); }
+                else if (c == DIVIDER) { key = key * 12 + 11; }
+                else { return new String(label, 0, length); }
+            }
+            int slot = this.find(key);
+            if (this.keys[slot] == 0) {
+                if (2 * (this.size + 1) > this.keys.length) {
+                    this.grow();
+                    slot = this.find(key);
+                }
+                this.keys[slot] = key;
+                this.values[slot] = new String(label, 0, length);
+                this.size += 1;
+            }
+            return this.values[slot];
+        }
+
+        /** Finds the slot of the key, or the empty slot where it would go. Keys are never 0. */
+        private int find(int key) {
+            int mask = this.keys.length - 1;
+            int slot = (key * 0x9E3779B9) >>> 16 & mask;
+            while ((this.keys[slot] != 0) && (this.keys[slot] != key)) { slot = (slot + 1) & mask; }
+            return slot;
+        }
+
+        private void grow() {
+            int[] oldKeys = this.keys;
+            String[] oldValues = this.values;
+            this.keys = new int[2 * oldKeys.length];
+            this.values = new String[2 * oldValues.length];
+            int slot;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == 0) { continue; }
+                slot = this.find(oldKeys[i]);
+                this.keys[slot] = oldKeys[i];
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
 }
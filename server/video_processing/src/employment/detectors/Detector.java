@@ -22,6 +22,7 @@ import training.ann.networks.Network;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.function.ObjLongConsumer;
 
 /**
  * This is the general class for using trained image detectors (e.g neural nets)
@@ -35,6 +36,7 @@ public abstract class Detector {
     protected File networkPath;
     protected double[] roi;
     protected String key;
+    protected double sampleInterval = 0;
 
 
     /** Creates and empty detector. */
@@ -58,8 +60,28 @@ public abstract class Detector {
     public abstract String detect(Mat frame, Collection<String> validIDs) throws IOException;
 
 
-    /** Each detector must be able to initialize by loading its detection object (e.g. neural net) and instantiating any necessary loop variables. */
-    public abstract void initialize() throws IOException;
+    /** Initializes the detector by loading its detection object (e.g. neural net) and instantiating any necessary loop variables. */
+    public void initialize() throws IOException { this.initialize(this.load_network()); }
+
+
+    /** Each detector must be able to load its detection object from networkPath. */
+    public abstract Network load_network() throws IOException;
+
+
+    /**
+     * Each detector must be able to initialize from a detection object loaded
+     * with <code>load_network</code>, e.g. by another detector. The detection
+     * object must only be read, so one object can serve detectors on many threads.
+     */
+    public abstract void initialize(Network network) throws IOException;
+
+
+    /**
+     * Passes any counts the detector kept since the last call (e.g. cache
+     * hits) to the counter by name, then clears them. Detectors that keep no
+     * counts pass nothing.
+     */
+    public void drain_counts(ObjLongConsumer<String> counter) {}
 
 
     /**
@@ -70,6 +92,14 @@ public abstract class Detector {
     public double[] get_roi() { return this.roi; }
 
 
+    /** Gets the path to the trained detection object. */
+    public File get_network_path() { return this.networkPath; }
+
+
+    /** Gets the seconds of video between detections when parsing (0 for every sampled frame). */
+    public double get_sample_interval() { return this.sampleInterval; }
+
+
     /** Gets the key name of the detector for distinguishing results of detection from other detectors. */
     public String get_key() { return this.key; }
 }
@@ -17,19 +17,20 @@ limitations under the License.
 package employment.detectors;
 
 import org.opencv.core.Mat;
-import image_libraries.Image;
+import image_libraries.CaptureWriter;
+import image_libraries.FrameConverter;
 import training.ann.networks.AverageImage;
+import training.ann.networks.BitmaskImage;
+import training.ann.networks.Network;
 import training.math.Matrix2D;
 import training.trainers.NameTrainerAvgImg;
 import options.Options;
 
-import javax.imageio.ImageIO;
-import java.awt.*;
-import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collection;
 import java.util.UUID;
+import java.util.function.ObjLongConsumer;
 
 /**
  * This class is the detector for hero names.
@@ -46,28 +47,80 @@ public class NameDetectorAvgImg extends Detector {
         }
     }
 
-    private File saveTo = null;
     public static final String KEY = options.ND.KEY();
+    public static final String MATCHER_BITMASK = "bitmask";
+    public static final String COUNT_EARLY_ACCEPTS = KEY + ":early_accepts";
+    public static final String COUNT_EARLY_CHECKS = KEY + ":early_checks";
+    public static final String COUNT_SAVES_DROPPED = KEY + ":saves_dropped";
+
+    // where names are saved with their predictions (if anywhere), one of
+    // every saveEvery, by a writer shared by all name detectors. Number of
+    // names seen toward the next save, and saves dropped since the counts
+    // were last drained
+    private File saveTo = null;
+    private int saveEvery = Math.max(1, options.ND.SAVE_EVERY());
+    private long saveCount = 0;
+    private long savesDropped = 0;
+    private static CaptureWriter captures = null;
     private Matrix2D sample;
+    private FrameConverter converter = new FrameConverter();
+    private AverageImage.Search search;
+    private long[] bitmask;
+
+    // most recently matched names, most recent first, which are checked
+    // before the others. Counts of how often that was tried and how often
+    // it was enough, since the counts were last drained
+    private String[] recent = new String[Math.max(0, options.ND.RECENT_NAMES())];
+    private int recentCount = 0;
+    private double acceptCorrelation = options.ND.EARLY_ACCEPT_CORRELATION();
+    private double acceptMargin = options.ND.EARLY_ACCEPT_MARGIN();
+    private long earlyAccepts = 0;
+    private long earlyChecks = 0;
 
     public NameDetectorAvgImg() throws IOException {
         super(options.ND.NETWORK().getAbsolutePath(), KEY, options.ND.ROI());
+        this.sampleInterval = options.ND.SAMPLE_INTERVAL();
         if (options.ND.SAVE()) {
             this.saveTo = new File(options.get_jar().getParentFile(), UUID.randomUUID().toString());
             if (!this.saveTo.mkdirs()) {
-                System.out.println("Failed to make output directory for name detection images. Failure is imminent.");
+                System.out.println("Failed to make output directory for name detection images. They will not be saved.");
+                this.saveTo = null;
             }
             else {
                 System.out.println("Name detection results will be saved to " + this.saveTo.getAbsolutePath());
+                capture_writer();
             }
         }
     }
 
 
-    public void initialize() throws IOException {
-        this.network = AverageImage.load(this.networkPath.getAbsolutePath());
+    /**
+     * Loads the AverageImage, finding principal components of its protos for
+     * the coarse pass if it was saved without the number asked for in the
+     * options. If the options ask for bitmask matching, makes a BitmaskImage
+     * from the AverageImage instead.
+     */
+    public Network load_network() throws IOException {
+        AverageImage model = AverageImage.load(this.networkPath.getAbsolutePath());
+        if (model == null) { throw new IOException("Couldnt load the name detection model from " + this.networkPath.getAbsolutePath()); }
+        if (options.ND.MATCHER().equals(MATCHER_BITMASK)) { return BitmaskImage.from(model, options.ND.BITMASK_MARGIN()); }
+        int components = options.ND.PRINCIPAL_COMPONENTS();
+        if (components <= 0) { model.set_components(null); }
+        else if ((model.get_components() == null) || (model.get_components().r() != components)) {
+            model.set_components(NameTrainerAvgImg.principal_components(model, components));
+        }
+        return model;
+    }
+
+
+    /** Name prediction only reads the network, so it is used as is, with buffers of this detector's own. */
+    public void initialize(Network network) throws IOException {
+        this.network = network;
         int[] inputShape = this.network.get_input_shape();
         this.sample = new Matrix2D(inputShape[0], inputShape[1]);
+        this.search = (network instanceof AverageImage) ? ((AverageImage) network).new_search() : null;
+        this.bitmask = (network instanceof BitmaskImage) ? ((BitmaskImage) network).new_buffer() : null;
+        this.recentCount = 0;
     }
 
 
@@ -77,24 +130,7 @@ public class NameDetectorAvgImg extends Detector {
      * @param frame opencv Mat frame
      * @param target target Matrix2D to feed further through detection
      */
-    public static void frame_to_matrix2d(Mat frame, Matrix2D target){
-        int rows = frame.rows();
-        int cols = frame.cols();
-        double[] pixel;
-        double gray;
-        int c = 0;
-        for (int i = 0; i < rows; i++){
-            for (int j = 0; j < cols; j++){
-
-                // turn the pixel to grayscale and assign to the output
-                pixel = frame.get(i, j);
-                gray = Image.luminosity((int) pixel[0], (int) pixel[1], (int) pixel[2]) / 255d;
-//                gray = 1d - Image.distance_to_white(pixel[0], pixel[1], pixel[2]);
-                target.set_by_flat(c, gray);
-                c += 1;
-            }
-        }
-    }
+    public static void frame_to_matrix2d(Mat frame, Matrix2D target){ new FrameConverter().to_matrix2d(frame, target); }
 
 
     public String detect(Mat frame) throws IOException { return this.detect(frame, null); }
@@ -113,27 +149,76 @@ public class NameDetectorAvgImg extends Detector {
         if (this.network == null) { this.initialize(); }
 
         // convert the opencv frame to a version we can use in detection
-        NameDetectorAvgImg.frame_to_matrix2d(frame, this.sample);
+        this.converter.to_matrix2d(frame, this.sample);
         NameTrainerAvgImg.prepare_input(this.sample, this.sample);
-        String prediction = this.network.predict(this.sample, validIDs);
+        String prediction;
+        if ((this.search != null) && (this.recentCount > 0)) {
+            prediction = ((AverageImage) this.network).predict(this.sample, validIDs, this.search, this.recent, this.recentCount, this.acceptCorrelation, this.acceptMargin);
+            this.earlyChecks += 1;
+            if (this.search.accepted()) { this.earlyAccepts += 1; }
+        }
+        else if (this.search != null) { prediction = ((AverageImage) this.network).predict(this.sample, validIDs, this.search); }
+        else if (this.bitmask != null) { prediction = ((BitmaskImage) this.network).predict(this.sample, validIDs, this.bitmask); }
+        else { prediction = this.network.predict(this.sample, validIDs); }
+        this.remember(prediction);
 
         // save results of prediction
-        if (this.saveTo != null) {
-            BufferedImage bwImage = new BufferedImage(sample.c(), sample.r(), BufferedImage.TYPE_BYTE_GRAY);
-            double lum;
-            double colorScalar = 255d * (1d / sample.max());
-            for (int y = 0; y < sample.r(); y++){
-                for (int x = 0; x < sample.c(); x++){
-                    lum = sample.get(y, x);
-                    int rgb = 255 - ((int) (colorScalar*lum));
-                    bwImage.setRGB(x, y, (new Color(rgb, rgb, rgb)).getRGB());
-                }
+        if (this.saveTo != null) { this.save_sample(prediction); }
+
+        return prediction;
+    }
+
+
+    /**
+     * Queues one of every saveEvery samples to be saved as a grayscale image
+     * (darker where the sample is brighter) named by its prediction.
+     */
+    private void save_sample(String prediction) {
+        if ((this.saveCount++ % this.saveEvery) != 0) { return; }
+        Matrix2D sample = this.sample;
+        byte[] pixels = new byte[sample.size()];
+        double colorScalar = 255d * (1d / sample.max());
+        for (int y = 0; y < sample.r(); y++) {
+            for (int x = 0; x < sample.c(); x++) {
+                pixels[y*sample.c() + x] = (byte) (255 - ((int) (colorScalar*sample.get(y, x))));
             }
-            File outputFile = new File(this.saveTo, String.format("%s_%s.png", prediction, UUID.randomUUID().toString()));
-            ImageIO.write(bwImage, "png", outputFile);
         }
+        if (!captures.offer(this.saveTo, prediction, pixels, sample.c(), sample.r())) { this.savesDropped += 1; }
+    }
 
-        return prediction;
+
+    /** Gets the writer shared by name detectors that save their predictions, starting it if needed. */
+    private static synchronized CaptureWriter capture_writer() {
+        if (captures == null) { captures = new CaptureWriter(options.ND.SAVE_QUEUE(), "name-captures"); }
+        return captures;
     }
 
+
+    /** Moves a matched name to the front of the recently matched names. */
+    private void remember(String name) {
+        if ((name == null) || (this.recent.length == 0)) { return; }
+        int i = 0;
+        while ((i < this.recentCount) && !this.recent[i].equals(name)) { i += 1; }
+        if (i == this.recentCount) {
+            if (this.recentCount < this.recent.length) { this.recentCount += 1; }
+            i = this.recentCount - 1;
+        }
+        System.arraycopy(this.recent, 0, this.recent, 1, i);
+        this.recent[0] = name;
+    }
+
+
+    /** Passes how often recently matched names were checked first, how often one was taken early, and saves dropped. */
+    public void drain_counts(ObjLongConsumer<String> counter) {
+        if (this.earlyChecks > 0) {
+            counter.accept(COUNT_EARLY_ACCEPTS, this.earlyAccepts);
+            counter.accept(COUNT_EARLY_CHECKS, this.earlyChecks);
+            this.earlyAccepts = 0;
+            this.earlyChecks = 0;
+        }
+        if (this.savesDropped > 0) {
+            counter.accept(COUNT_SAVES_DROPPED, this.savesDropped);
+            this.savesDropped = 0;
+        }
+    }
 }
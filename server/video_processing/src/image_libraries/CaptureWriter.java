@@ -0,0 +1,131 @@
+/*
+Copyright 2018 Austin Walker Milt
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package image_libraries;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes grayscale images (e.g. detector inputs saved with their predicted
+ * labels) on a background thread, so saving doesnt slow down detection.
+ * <p>
+ * Images wait in a bounded queue. When the queue is full, new images are
+ * dropped rather than making the caller wait. Images still queued when the
+ * program exits are written before it does.
+ *
+ * @author Austin Milt
+ */
+public class CaptureWriter {
+
+    private ArrayBlockingQueue<Capture> queue;
+    private AtomicLong pending = new AtomicLong();
+    private AtomicLong dropped = new AtomicLong();
+
+
+    /**
+     * Creates a writer and starts its thread.
+     *
+     * @param capacity number of images that can wait to be written before new ones are dropped
+     * @param name name of the writing thread
+     */
+    public CaptureWriter(int capacity, String name) {
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, capacity));
+        Thread writer = new Thread(() -> {
+            while (true) {
+                try { this.write(this.queue.take()); }
+                catch (InterruptedException e) { return; }
+            }
+        }, name);
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::flush));
+    }
+
+
+    /**
+     * Queues an image to be written as a png named by its label, unless the
+     * queue is full.
+     *
+     * @param directory directory to write to
+     * @param label label to start the file name with (a unique suffix is added)
+     * @param pixels gray level of each pixel, row by row. Must not be changed afterwards
+     * @param width width of the image
+     * @param height height of the image
+     * @return whether the image was queued (false if it was dropped)
+     */
+    public boolean offer(File directory, String label, byte[] pixels, int width, int height) {
+        this.pending.incrementAndGet();
+        if (this.queue.offer(new Capture(directory, label, pixels, width, height))) { return true; }
+        this.pending.decrementAndGet();
+        this.dropped.incrementAndGet();
+        return false;
+    }
+
+
+    /** Gets the number of images dropped because the queue was full. */
+    public long dropped() { return this.dropped.get(); }
+
+
+    /** Waits until every queued image is written, writing them on this thread too. */
+    public void flush() {
+        Capture capture;
+        while (this.pending.get() > 0) {
+            if ((capture = this.queue.poll()) != null) { this.write(capture); }
+            else {
+                try { Thread.sleep(5); }
+                catch (InterruptedException e) { return; }
+            }
+        }
+    }
+
+
+    /** Writes an image, filling its raster in one call. */
+    private void write(Capture capture) {
+        try {
+            BufferedImage image = new BufferedImage(capture.width, capture.height, BufferedImage.TYPE_BYTE_GRAY);
+            image.getRaster().setDataElements(0, 0, capture.width, capture.height, capture.pixels);
+            File outputFile = new File(capture.directory, String.format("%s_%s.png", capture.label, UUID.randomUUID().toString()));
+            ImageIO.write(image, "png", outputFile);
+        }
+        catch (IOException | RuntimeException e) { System.out.println("Failed to save image: " + e.getMessage()); }
+        finally { this.pending.decrementAndGet(); }
+    }
+
+
+
+    /** An image waiting to be written. */
+    private static class Capture {
+        private File directory;
+        private String label;
+        private byte[] pixels;
+        private int width;
+        private int height;
+        private Capture(File directory, String label, byte[] pixels, int width, int height) {
+            this.directory = directory;
+            this.label = label;
+            this.pixels = pixels;
+            this.width = width;
+            this.height = height;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+/*
+Copyright 2018 Austin Walker Milt
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package image_libraries;
+
+import org.opencv.core.Mat;
+import training.math.Matrix2D;
+
+/**
+ * Converts opencv frames to grayscale for detection. Each frame is copied out
+ * of opencv with one bulk read into a reused buffer, rather than one call
+ * (and one new array) per pixel.
+ * <p>
+ * Gray levels are Image.luminosity of each pixel's channels taken in stored
+ * order, scaled to 0-1, which is what detection models were trained on.
+ * <p>
+ * A converter reuses its buffer between calls, so each thread should use its own.
+ *
+ * @author Austin Milt
+ */
+public class FrameConverter {
+
+    private byte[] pixels = new byte[0];
+
+
+    /**
+     * Converts an 8-bit opencv frame (1 or 3 channels) to grayscale.
+     *
+     * @param frame opencv Mat frame
+     * @param target target Matrix2D the same shape as the frame, or null to make one
+     * @return target
+     */
+    public Matrix2D to_matrix2d(Mat frame, Matrix2D target) {
+        int rows = frame.rows();
+        int cols = frame.cols();
+        int channels = frame.channels();
+        if (target == null) { target = new Matrix2D(rows, cols); }
+        int n = rows * cols * channels;
+        if (this.pixels.length != n) { this.pixels = new byte[n]; }
+        frame.get(0, 0, this.pixels);
+        byte[] p = this.pixels;
+        if (channels == 1) {
+            for (int c = 0; c < rows * cols; c++) { target.set_by_flat(c, (p[c] & 0xFF) / 255d); }
+        }
+        else {
+            for (int c = 0, b = 0; b < n; c++, b += channels) {
+                target.set_by_flat(c, Image.luminosity(p[b] & 0xFF, p[b+1] & 0xFF, p[b+2] & 0xFF) / 255d);
+            }
+        }
+        return target;
+    }
+}
@@ -86,6 +86,10 @@ public class Options {
         public File NETWORK() { return get_file(explicit(NAME, "serialized_network")); }
         public boolean SAVE() { return get_boolean(explicit(NAME, "save_predictions")); }
         public String KEY() { return get_string(explicit(NAME, "key")); }
+        public int GLYPH_CACHE() { return get_int(explicit(NAME, "glyph_cache_size")); }
+        public double SAMPLE_INTERVAL() { return get_double(explicit(NAME, "sample_interval")); }
+        public int SAVE_EVERY() { return get_int(explicit(NAME, "save_every")); }
+        public int SAVE_QUEUE() { return get_int(explicit(NAME, "save_queue_size")); }
     }
 
 
@@ -116,6 +120,15 @@ public class Options {
         public File NETWORK() { return get_file(explicit(NAME, "serialized_network")); }
         public boolean SAVE() { return get_boolean(explicit(NAME, "save_predictions")); }
         public String KEY() { return get_string(explicit(NAME, "key")); }
+        public int PRINCIPAL_COMPONENTS() { return get_int(explicit(NAME, "principal_components")); }
+        public String MATCHER() { return get_string(explicit(NAME, "matcher")); }
+        public double BITMASK_MARGIN() { return get_double(explicit(NAME, "bitmask_margin")); }
+        public int RECENT_NAMES() { return get_int(explicit(NAME, "recent_names")); }
+        public double EARLY_ACCEPT_CORRELATION() { return get_double(explicit(NAME, "early_accept_correlation")); }
+        public double EARLY_ACCEPT_MARGIN() { return get_double(explicit(NAME, "early_accept_margin")); }
+        public double SAMPLE_INTERVAL() { return get_double(explicit(NAME, "sample_interval")); }
+        public int SAVE_EVERY() { return get_int(explicit(NAME, "save_every")); }
+        public int SAVE_QUEUE() { return get_int(explicit(NAME, "save_queue_size")); }
     }
 
 
@@ -128,6 +141,22 @@ public class Options {
         public double SKIP_SECONDS() { return get_double(explicit(NAME, "play_skip_seconds")); }
         public double SKIP_MINUTES() { return get_double(explicit(NAME, "play_skip_minutes")); }
         public double PARSE_SKIP() { return get_double(explicit(NAME, "parse_skip_default")); }
+        public String SAMPLING() { return get_string(explicit(NAME, "parse_sampling")); }
+        public int KEYFRAME_INTERVAL() { return get_int(explicit(NAME, "keyframe_interval")); }
+        public int PARSE_WORKERS() { return get_int(explicit(NAME, "parse_workers")); }
+        public int PIPELINE_THREADS() { return get_int(explicit(NAME, "pipeline_detector_threads")); }
+        public int PIPELINE_QUEUE() { return get_int(explicit(NAME, "pipeline_queue_size")); }
+        public int ADAPTIVE_STRIDE() { return get_int(explicit(NAME, "adaptive_stride")); }
+        public double ADAPTIVE_TOLERANCE() { return get_double(explicit(NAME, "adaptive_clock_tolerance")); }
+        public String OUTPUT_FORMAT() { return get_string(explicit(NAME, "output_format")); }
+        public int CHECKPOINT_INTERVAL() { return get_int(explicit(NAME, "checkpoint_interval")); }
+        public boolean REUSE_UNCHANGED() { return get_boolean(explicit(NAME, "reuse_unchanged_regions")); }
+        public int SERVER_JOBS() { return get_int(explicit(NAME, "server_jobs")); }
+        public int SERVER_QUEUE() { return get_int(explicit(NAME, "server_queue_size")); }
+        public int BATCH_THREADS() { return get_int(explicit(NAME, "batch_threads")); }
+        public double BATCH_CHUNK_SECONDS() { return get_double(explicit(NAME, "batch_chunk_seconds")); }
+        public double GROWING_TIMEOUT() { return get_double(explicit(NAME, "growing_timeout")); }
+        public String FFMPEG() { return get_string(explicit(NAME, "ffmpeg")); }
         public String CSV_SEP_COL() { return get_string(explicit(NAME, "csv_separator_column")); }
         public String CSV_SEP_INTERVAL() { return get_string(explicit(NAME, "csv_separator_interval")); }
         public String CSV_SEP_LABEL() { return get_string(explicit(NAME, "csv_separator_label")); }
@@ -28,6 +28,8 @@ import java.io.*;
  */
 public abstract class HiddenLayer extends Layer implements Serializable {
 
+    private static final long serialVersionUID = 1005865882485774235L;
+
     // private variables shared across child classes
     private Matrix2D weights;
     private Matrix2D bias;
@@ -44,6 +46,21 @@ public abstract class HiddenLayer extends Layer implements Serializable {
     public HiddenLayer(){}
 
 
+    /**
+     * Creates a new HiddenLayer that uses the same weights and bias as another,
+     * with its own output buffer for the given number of samples. Has no
+     * buffers for training.
+     *
+     * @param shared layer whose weights and bias to use
+     * @param samples number of samples, i.e. number of input columns
+     */
+    protected HiddenLayer(HiddenLayer shared, int samples){
+        super(shared.O().r(), samples);
+        this.weights = shared.weights;
+        this.bias = shared.bias;
+    }
+
+
     /**
      * Creates a new HiddenLayer with attributes shared across its children
      * (mostly reserves memory for various intermediate calculations).
@@ -30,6 +30,8 @@ import java.io.Serializable;
  */
 public class InputLayer extends Layer implements Serializable {
 
+    private static final long serialVersionUID = -6664756082964501573L;
+
     /**
      * Creates a new InputLayer with the given size of input data to be fed later.
      *
@@ -72,4 +74,12 @@ public class InputLayer extends Layer implements Serializable {
      * @return a new InputLayer that can accept a single test sample.
      */
     public InputLayer reduce() { return new InputLayer(this.O().r(), 1); }
+
+
+    /** Makes a new InputLayer of the same size. */
+    public InputLayer share() { return this.share(this.O().c()); }
+
+
+    /** Makes a new InputLayer for the given number of samples. */
+    public InputLayer share(int samples) { return new InputLayer(this.O().r(), samples); }
 }
@@ -29,6 +29,9 @@ import java.io.Serializable;
  */
 public abstract class Layer implements Serializable {
 
+    // pinned so networks serialized before share() was added still load
+    private static final long serialVersionUID = -6732605389602477768L;
+
     // private variables shared across child classes
     private transient Layer next;
     private transient Layer previous;
@@ -63,6 +66,24 @@ public abstract class Layer implements Serializable {
     public abstract Layer reduce();
 
 
+    /**
+     * Requires all derived layers be able to share() their trained parameters
+     * with a new layer of the same size that has its own buffers, so several
+     * threads can predict with one copy of the parameters. Shared layers are
+     * for prediction only.
+     * @return
+     */
+    public abstract Layer share();
+
+
+    /**
+     * Like share(), but the new layer takes the given number of samples (i.e.
+     * columns) at once, e.g. to predict on a batch of samples in one pass.
+     * @return
+     */
+    public abstract Layer share(int samples);
+
+
     /**
      * Creates a new empty Layer, but shouldnt really be called.
      */
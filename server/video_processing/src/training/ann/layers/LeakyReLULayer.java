@@ -29,6 +29,8 @@ import java.io.Serializable;
  * @author Austin Milt
  */
 public class LeakyReLULayer extends Layer implements Serializable {
+
+    private static final long serialVersionUID = 6609192627712626233L;
     private static final double DROPRATE = 1.;
     private double rate;
     private double dropout = 1d;
@@ -112,4 +114,12 @@ public class LeakyReLULayer extends Layer implements Serializable {
 
     /** Reduces the layer to accept a single test sample. */
     public LeakyReLULayer reduce() { return new LeakyReLULayer(this.O().r(), 1, this.rate); }
+
+
+    /** Makes a new LeakyReLULayer of the same size and rate. */
+    public LeakyReLULayer share() { return this.share(this.O().c()); }
+
+
+    /** Makes a new LeakyReLULayer of the same rate for the given number of samples. */
+    public LeakyReLULayer share(int samples) { return new LeakyReLULayer(this.O().r(), samples, this.rate, this.dropout); }
 }
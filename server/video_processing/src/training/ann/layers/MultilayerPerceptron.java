@@ -28,6 +28,12 @@ import java.io.Serializable;
  */
 public class MultilayerPerceptron extends HiddenLayer implements Serializable {
 
+    private static final long serialVersionUID = -7106545123457015374L;
+
+    /** Creates a MultilayerPerceptron that uses the weights of another. See HiddenLayer(HiddenLayer). */
+    private MultilayerPerceptron(MultilayerPerceptron shared, int samples){ super(shared, samples); }
+
+
     /**
      * Creates a new MultilayerPerceptron.
      * @see HiddenLayer
@@ -67,9 +73,8 @@ public class MultilayerPerceptron extends HiddenLayer implements Serializable {
         Matrix2D db = this.db();
         Matrix2D WT = this.WT();
         Matrix2D X = this.get_previous().O();
-        Matrix2D XT = this.XT();
         W.transpose(WT).dot(deltas, dX);
-        deltas.dot(X.transpose(XT), dW);
+        deltas.dot_transposed(X, dW);
         deltas.dot(this.ones(), db);
     }
 
@@ -78,4 +83,12 @@ public class MultilayerPerceptron extends HiddenLayer implements Serializable {
     public MultilayerPerceptron reduce(){
         return new MultilayerPerceptron(this.W(), this.b(), 1);
     }
+
+
+    /** Makes a MultilayerPerceptron that uses this layer's weights and bias. */
+    public MultilayerPerceptron share() { return this.share(this.O().c()); }
+
+
+    /** Makes a MultilayerPerceptron that uses this layer's weights and bias for the given number of samples. */
+    public MultilayerPerceptron share(int samples) { return new MultilayerPerceptron(this, samples); }
 }
@@ -29,6 +29,8 @@ import java.io.Serializable;
  */
 public class SoftmaxLayer extends HiddenLayer implements Serializable {
 
+    private static final long serialVersionUID = 3238873266692653182L;
+
     private Matrix2D diff;
     private Matrix2D L;
 
@@ -43,6 +45,10 @@ public class SoftmaxLayer extends HiddenLayer implements Serializable {
     }
 
 
+    /** Creates a SoftmaxLayer that uses the weights of another. See HiddenLayer(HiddenLayer). */
+    private SoftmaxLayer(SoftmaxLayer shared, int samples){ super(shared, samples); }
+
+
     /**
      * Creates a new SoftmaxLayer with the given parameters.
      *
@@ -69,6 +75,29 @@ public class SoftmaxLayer extends HiddenLayer implements Serializable {
     }
 
 
+    /**
+     * Performs forward pass for this layer (softmax), normalizing each sample
+     * (column) on its own rather than across the whole batch. Gives the same
+     * output as forward() for a single sample, e.g. for batched prediction.
+     */
+    public void forward_samples(){
+        Matrix2D O = this.O();
+        this.W().dot(this.get_previous().get_output(), O).add_to_cols(this.b(), O);
+        double max;
+        double sum;
+        for (int j = 0; j < O.c(); j++) {
+            max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < O.r(); i++) { if (O.get(i, j) > max) { max = O.get(i, j); } }
+            sum = 0;
+            for (int i = 0; i < O.r(); i++) {
+                O.set(i, j, Math.exp(O.get(i, j) - max));
+                sum += O.get(i, j);
+            }
+            for (int i = 0; i < O.r(); i++) { O.set(i, j, O.get(i, j) / sum); }
+        }
+    }
+
+
     /** Backward pass for an output layer requires an answer matrix. */
     public void backward(){throw new RuntimeException("Must supply input labels."); }
 
@@ -77,7 +106,6 @@ public class SoftmaxLayer extends HiddenLayer implements Serializable {
     public void backward(Matrix2D labels){
         Matrix2D dX = this.D();
         Matrix2D X = this.get_previous().O();
-        Matrix2D XT = this.XT();
         Matrix2D O = this.O();
         Matrix2D W = this.W();
         Matrix2D dW = this.dW();
@@ -85,7 +113,7 @@ public class SoftmaxLayer extends HiddenLayer implements Serializable {
         Matrix2D db = this.db();
         O.subtract(labels, this.diff);
         W.transpose(this.WT()).dot(this.diff, dX);
-        this.diff.dot(X.transpose(XT), dW);
+        this.diff.dot_transposed(X, dW);
         this.diff.dot(ones, db);
     }
 
@@ -94,6 +122,14 @@ public class SoftmaxLayer extends HiddenLayer implements Serializable {
     public SoftmaxLayer reduce() { return new SoftmaxLayer(this.W(), this.b(), 1); }
 
 
+    /** Makes a SoftmaxLayer that uses this layer's weights and bias. */
+    public SoftmaxLayer share() { return this.share(this.O().c()); }
+
+
+    /** Makes a SoftmaxLayer that uses this layer's weights and bias for the given number of samples. */
+    public SoftmaxLayer share(int samples) { return new SoftmaxLayer(this, samples); }
+
+
     /** Calculates log loss for the given test answers assuming they match the test input from the forward pass. */
     public double loss(Matrix2D labels){
         return -this.get_output().log(this.L).multiply(labels, this.L).sum();
@@ -25,6 +25,7 @@ import training.samples.BatchCollection;
 import java.io.*;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 
 
 /**
@@ -37,6 +38,7 @@ public class ANN extends Network implements Serializable {
     ///////////////////////////////////////////////////////////////////////////
     // CLASS VARIABLES ////////////////////////////////////////////////////////
     ///////////////////////////////////////////////////////////////////////////
+    private static final long serialVersionUID = -6088131172548726650L;
     private transient InputLayer first;
     private transient Layer last;
     private transient SoftmaxLayer out = null;
@@ -221,14 +223,81 @@ public class ANN extends Network implements Serializable {
     }
 
 
-    /** Predicts the label of the input based on the trained weights of the network. */
+    /**
+     * Predicts the label of the input based on the trained weights of the network.
+     * Each column of the input is a sample and gets its own prediction column,
+     * so a network share()d for k samples predicts k samples in one pass.
+     */
     public Matrix2D predict(Matrix2D input){
-        boolean preFlag = this.forwardFlag;
-        this.forwardFlag = false;
-        this.forward(input, false);
-        Matrix2D prediction = this.out.get_output();
-        this.forwardFlag = preFlag;
-        return prediction;
+        if ((!(this.first instanceof InputLayer)) || (this.out == null)) {
+            throw new RuntimeException("Network is missing some necessary layers.");
+        }
+        this.first.forward(input);
+        Layer layer = this.first.get_next();
+        while (layer != this.out) {
+            if (layer instanceof LeakyReLULayer) { ((LeakyReLULayer) layer).forward(false); }
+            else { layer.forward(); }
+            layer = layer.get_next();
+        }
+        this.out.forward_samples();
+        return this.out.get_output();
+    }
+
+
+    /**
+     * Predicts several samples in one pass, choosing each sample's identifier
+     * from its own valid identifiers.
+     *
+     * @param inputs samples to predict, one per column
+     * @param validIDs valid identifiers of each sample (column), or null entries for any identifier
+     * @return best identifier of each sample in validIDs
+     */
+    public String[] predict(Matrix2D inputs, List<? extends Collection<String>> validIDs) {
+        int[][] validRows = new int[validIDs.size()][];
+        for (int j = 0; j < validRows.length; j++) {
+            if (validIDs.get(j) == null) { continue; }
+            validRows[j] = new int[validIDs.get(j).size()];
+            int k = 0;
+            for (String id : validIDs.get(j)) { validRows[j][k++] = this.id2num.get(id); }
+        }
+        int[] best = this.predict_rows(inputs, validRows, new int[validRows.length]);
+        String[] output = new String[best.length];
+        for (int j = 0; j < best.length; j++) { output[j] = (best[j] < 0) ? "" : this.num2id.get(best[j]); }
+        return output;
+    }
+
+
+    /**
+     * Predicts several samples in one pass, choosing each sample's best output
+     * row (see get_id2num()) from its own valid rows. Allocates nothing, so it
+     * suits per-frame detection.
+     *
+     * @param inputs samples to predict, one per column
+     * @param validRows output rows each sample (column) may take, or null entries for any row.
+     *                  Only the first validRows.length columns are checked.
+     * @param best target for the best row of each checked sample, or -1 when it has no valid rows
+     * @return best
+     */
+    public int[] predict_rows(Matrix2D inputs, int[][] validRows, int[] best) {
+        Matrix2D prediction = this.predict(inputs);
+        double maxValue;
+        int[] rows;
+        int n;
+        int row;
+        for (int j = 0; j < validRows.length; j++) {
+            rows = validRows[j];
+            n = (rows == null) ? prediction.r() : rows.length;
+            maxValue = Double.NEGATIVE_INFINITY;
+            best[j] = -1;
+            for (int k = 0; k < n; k++) {
+                row = (rows == null) ? k : rows[k];
+                if (prediction.get(row, j) > maxValue) {
+                    maxValue = prediction.get(row, j);
+                    best[j] = row;
+                }
+            }
+        }
+        return best;
     }
 
 
@@ -396,6 +465,30 @@ public class ANN extends Network implements Serializable {
         return output;
     }
 
+    /**
+     * Makes a network that uses this network's trained weights and labels
+     * without copying them, but has its own layer buffers. Any number of
+     * shared networks can predict on separate threads as long as none of
+     * them (or this network) are trained.
+     */
+    public ANN share(){ return this.share(this.first.O().c()); }
+
+
+    /** Like share(), but the new network predicts the given number of samples (columns) in one pass. */
+    public ANN share(int samples){
+        ANN output = new ANN();
+        output.set_rate(this.baseLearnRate);
+        output.id2label = this.id2label;
+        output.num2id = this.num2id;
+        output.id2num = this.id2num;
+        Layer layer = this.first;
+        while (layer != null){
+            output.add_layer(layer.share(samples));
+            layer = layer.get_next();
+        }
+        return output;
+    }
+
     /** Gets the number of layers in the network. */
     public int get_size() { return this.size; }
 
@@ -20,14 +20,43 @@ package training.ann.networks;
 import training.math.Matrix2D;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Map;
 
 public class AverageImage extends Network implements Serializable {
 
+    // pinned so networks serialized before the proto bank was added still load
+    private static final long serialVersionUID = 446643097226397781L;
+
     private double binaryThreshold = 0.5;
     private HashMap<String, Matrix2D> protoImages = new HashMap<>();
     private int[] inputShape = null;
+
+    // proto images shifted to zero mean and scaled to unit norm, packed one
+    // per row, so a sample's correlation with a proto is the dot product of
+    // its row and the centered sample, over the sample's norm
+    private transient String[] names;
+    private transient HashMap<String, Integer> nameRows;
+    private transient float[] bank;
+    private transient int size;
+
+    // optional principal components of the bank (one per row) for a coarse
+    // first pass, with each proto's coordinates along them and the norm of
+    // what the components miss of each proto
+    private Matrix2D components = null;
+    private transient double[] basis;
+    private transient float[] projections;
+    private transient double[] residuals;
+
+    // slack on the bound of a proto's correlation from the coarse pass, to
+    // cover rounding in the bank
+    private static final double BOUND_SLACK = 1e-5;
+
+    // protos scored exactly in order of their bounds before scoring the rest
+    // in order, since picking the highest bound costs a pass over the protos
+    private static final int ORDERED_PICKS = 8;
     public AverageImage(HashMap<String, Matrix2D> protoImages) {
         for (String name : protoImages.keySet()) {
 
@@ -49,72 +78,323 @@ public class AverageImage extends Network implements Serializable {
             // put the validated image into protoimages
             this.protoImages.put(name, protoImages.get(name));
         }
+        this.pack();
     }
 
 
-    /**
-     * Calculate Pearson's correlation coefficient between elements in the two inputs.
-     *
-     * @param X1 first matrix
-     * @param X2 second matrix
-     * @return r, Pearson's correlation coefficient
-     */
-    private static double pearsons(Matrix2D X1, Matrix2D X2) {
-        double N = X1.size();
-        double sumX1 = 0d;
-        double sumX2 = 0d;
-        double sumX1X2 = 0d;
-        double sumX1Squared = 0d;
-        double sumX2Squared = 0d;
-        double x1;
-        double x2;
-        for (int c = 0; c < X1.size(); c++) {
-            x1 = X1.get_by_flat(c);
-            x2 = X2.get_by_flat(c);
-            sumX1 += x1;
-            sumX2 += x2;
-            sumX1X2 += x1*x2;
-            sumX1Squared += x1*x1;
-            sumX2Squared += x2*x2;
-        }
-
-        double result = (N*sumX1X2 - sumX1*sumX2);
-        result /= Math.sqrt(N*sumX1Squared - sumX1*sumX1) * Math.sqrt(N*sumX2Squared - sumX2*sumX2);
-        return result;
+    /** Packs the proto images into the bank, e.g. once they are loaded. */
+    private void pack() {
+        int n = this.protoImages.size();
+        this.size = (this.inputShape == null) ? 0 : this.inputShape[0] * this.inputShape[1];
+        this.names = new String[n];
+        this.nameRows = new HashMap<>(2 * n);
+        this.bank = new float[n * this.size];
+        int row = 0;
+        for (Map.Entry<String, Matrix2D> entry : this.protoImages.entrySet()) {
+            Matrix2D proto = entry.getValue();
+            double mean = proto.sum() / this.size;
+            double norm = centered_norm(proto, mean);
+            for (int c = 0; c < this.size; c++) {
+                this.bank[row * this.size + c] = (float) ((proto.get_by_flat(c) - mean) / norm);
+            }
+            this.names[row] = entry.getKey();
+            this.nameRows.put(entry.getKey(), row);
+            row += 1;
+        }
+        this.project();
+    }
+
+
+    /** Finds the coordinates of each proto along the principal components, if there are any. */
+    private void project() {
+        if (this.components == null) {
+            this.basis = null;
+            this.projections = null;
+            this.residuals = null;
+            return;
+        }
+        int n = this.names.length;
+        int m = this.components.r();
+        this.basis = new double[m * this.size];
+        for (int c = 0; c < this.basis.length; c++) { this.basis[c] = this.components.get_by_flat(c); }
+        this.projections = new float[n * m];
+        this.residuals = new double[n];
+        double coord;
+        double kept;
+        for (int row = 0; row < n; row++) {
+            kept = 0d;
+            for (int j = 0; j < m; j++) {
+                coord = 0d;
+                for (int c = 0; c < this.size; c++) { coord += this.basis[j * this.size + c] * this.bank[row * this.size + c]; }
+                this.projections[row * m + j] = (float) coord;
+                kept += coord*coord;
+            }
+            this.residuals[row] = Math.sqrt(Math.max(0d, 1d - kept));
+        }
+    }
+
+
+    /** Gets the square root of the summed squared differences of the image from its mean. */
+    private static double centered_norm(Matrix2D image, double mean) {
+        double sum = 0d;
+        double d;
+        for (int c = 0; c < image.size(); c++) {
+            d = image.get_by_flat(c) - mean;
+            sum += d*d;
+        }
+        return Math.sqrt(sum);
+    }
+
+
+    /** Gets the dot product of a proto's row in the bank with the sample minus its mean. */
+    private double dot(int row, Matrix2D sample, double mean) {
+        int offset = row * this.size;
+        double sum = 0d;
+        for (int c = 0; c < this.size; c++) { sum += this.bank[offset + c] * (sample.get_by_flat(c) - mean); }
+        return sum;
     }
 
 
     /**
      * Predicts the most likely label of the given sample image.
      * <p>
-     * Best label is determined by Pearson's correlation coefficient with glyphs.
+     * Best label is determined by Pearson's correlation coefficient with glyphs,
+     * scored against the packed proto bank.
      *
      * @param sample image to classify
      * @param validLabels valid output labels to choose from
      * @return most likely label
      */
     public String predict(Matrix2D sample, Collection<String> validLabels) {
-        double minError = Double.POSITIVE_INFINITY;
-        double error;
-        Matrix2D protoImage;
+        double mean = sample.sum() / this.size;
+        double norm = centered_norm(sample, mean);
+        double maxScore = Double.NEGATIVE_INFINITY;
+        double score;
         String bestLabel = null;
-        if (validLabels == null) { validLabels = this.protoImages.keySet(); }
-        for (String name : validLabels) {
-            protoImage = this.protoImages.get(name);
-            if (protoImage == null) { error = Double.POSITIVE_INFINITY; }
-            else {
-                error = pearsons(sample, protoImage);
-                error *= error;
-                error = 1 - error;
+        if (validLabels == null) {
+            for (int row = 0; row < this.names.length; row++) {
+                score = this.dot(row, sample, mean) / norm;
+                score *= score;
+                if (score > maxScore) {
+                    maxScore = score;
+                    bestLabel = this.names[row];
+                }
             }
-            if (error < minError) {
-                minError = error;
+            return bestLabel;
+        }
+        Integer row;
+        for (String name : validLabels) {
+            row = this.nameRows.get(name);
+            if (row == null) { continue; }
+            score = this.dot(row, sample, mean) / norm;
+            score *= score;
+            if (score > maxScore) {
+                maxScore = score;
                 bestLabel = name;
             }
         }
         return bestLabel;
     }
 
+
+    /**
+     * Predicts the most likely label of the given sample image, like
+     * <code>predict(sample, validLabels)</code>.
+     * <p>
+     * When there are no valid labels to narrow the search and the model has
+     * principal components, the sample is first scored coarsely against every
+     * proto along the components. That score and what the components miss of
+     * the proto and sample bound the proto's exact correlation, so protos are
+     * scored exactly in order of their bounds until no bound can beat the best
+     * exact score. The result is the same as scoring every proto exactly.
+     *
+     * @param sample image to classify
+     * @param validLabels valid output labels to choose from
+     * @param search buffers for the coarse pass, from <code>new_search</code>
+     * @return most likely label
+     */
+    public String predict(Matrix2D sample, Collection<String> validLabels, Search search) {
+        if ((validLabels != null) || (this.components == null) || (search == null) || !search.fits(this)) { return this.predict(sample, validLabels); }
+        double mean = sample.sum() / this.size;
+        double norm = centered_norm(sample, mean);
+        this.bound(sample, mean, norm, search);
+        return this.search(sample, mean, norm, search, -1, Double.NEGATIVE_INFINITY);
+    }
+
+
+    /** Puts a coarse bound on each proto's squared correlation with the sample into search.bounds. */
+    private void bound(Matrix2D sample, double mean, double norm, Search search) {
+        int n = this.names.length;
+        int m = this.components.r();
+
+        // coordinates of the normalized sample along the components, and the
+        // norm of what they miss
+        double coord;
+        double kept = 0d;
+        for (int j = 0; j < m; j++) {
+            coord = 0d;
+            for (int c = 0; c < this.size; c++) { coord += this.basis[j * this.size + c] * (sample.get_by_flat(c) - mean); }
+            coord /= norm;
+            search.coords[j] = coord;
+            kept += coord*coord;
+        }
+        double missed = Math.sqrt(Math.max(0d, 1d - kept));
+
+        // coarse bound on each proto's squared correlation
+        double coarse;
+        double bound;
+        for (int row = 0; row < n; row++) {
+            coarse = 0d;
+            for (int j = 0; j < m; j++) { coarse += this.projections[row * m + j] * search.coords[j]; }
+            bound = Math.min(1d, Math.abs(coarse) + this.residuals[row] * missed + BOUND_SLACK);
+            search.bounds[row] = bound*bound;
+        }
+    }
+
+
+    /**
+     * Scores protos exactly in order of their bounds from <code>bound</code>,
+     * returning the best label. Protos already scored have a NaN bound, and
+     * the best of them (if any) is given as bestRow with its squared score.
+     */
+    private String search(Matrix2D sample, double mean, double norm, Search search, int bestRow, double maxScore) {
+        int n = this.names.length;
+
+        // exactly score protos from the highest bound down, keeping the first
+        // row of equal scores like the exact search does. Scored protos get a
+        // NaN bound so they are never picked again
+        double score;
+        int next;
+        for (int pick = 0; pick < ORDERED_PICKS; pick++) {
+            next = -1;
+            for (int row = 0; row < n; row++) {
+                if ((search.bounds[row] >= maxScore) && ((next < 0) || (search.bounds[row] > search.bounds[next]))) { next = row; }
+            }
+            if (next < 0) { return (bestRow < 0) ? null : this.names[bestRow]; }
+            search.bounds[next] = Double.NaN;
+            score = this.dot(next, sample, mean) / norm;
+            score *= score;
+            if ((score > maxScore) || ((score == maxScore) && (next < bestRow))) {
+                maxScore = score;
+                bestRow = next;
+            }
+        }
+
+        // the bounds are too loose to single out the best proto (e.g. the
+        // sample is mostly noise), so score whatever is left in order
+        for (int row = 0; row < n; row++) {
+            if (!(search.bounds[row] >= maxScore)) { continue; }
+            score = this.dot(row, sample, mean) / norm;
+            score *= score;
+            if ((score > maxScore) || ((score == maxScore) && (row < bestRow))) {
+                maxScore = score;
+                bestRow = row;
+            }
+        }
+        return (bestRow < 0) ? null : this.names[bestRow];
+    }
+
+
+    /**
+     * Like <code>predict(sample, validLabels, search)</code>, but first scores
+     * the given likely labels exactly, e.g. those matched most recently. If
+     * the best of them correlates with the sample at least as much as accept,
+     * and beats by margin both the other likely labels and the coarse bound of
+     * every other label, it is taken without scoring any other label exactly
+     * (and search.accepted() says so). Since no other label can correlate
+     * better, the result is the same as scoring every label. Otherwise the
+     * search goes on as usual. Only used without valid labels and with
+     * principal components, like the bounded search.
+     *
+     * @param sample image to classify
+     * @param validLabels valid output labels to choose from
+     * @param search buffers for the coarse pass, from <code>new_search</code>
+     * @param likely labels to score first, most likely first
+     * @param likelyCount number of labels to use from the start of likely
+     * @param accept least absolute correlation to take a likely label early
+     * @param margin least difference in absolute correlation from the next best label (or bound) to take it early
+     * @return most likely label
+     */
+    public String predict(Matrix2D sample, Collection<String> validLabels, Search search, String[] likely, int likelyCount, double accept, double margin) {
+        if (search != null) { search.accepted = false; }
+        if ((likelyCount <= 0) || (validLabels != null) || (this.components == null) || (search == null) || !search.fits(this)) {
+            return this.predict(sample, validLabels, search);
+        }
+        double mean = sample.sum() / this.size;
+        double norm = centered_norm(sample, mean);
+        this.bound(sample, mean, norm, search);
+
+        // exact correlations of the likely labels
+        double best = Double.NEGATIVE_INFINITY;
+        double second = 0d;
+        double r;
+        int bestRow = -1;
+        Integer row;
+        for (int k = 0; k < likelyCount; k++) {
+            row = this.nameRows.get(likely[k]);
+            if ((row == null) || Double.isNaN(search.bounds[row])) { continue; }
+            search.bounds[row] = Double.NaN;
+            r = Math.abs(this.dot(row, sample, mean) / norm);
+            if ((r > best) || ((r == best) && (row < bestRow))) {
+                second = Math.max(second, best);
+                best = r;
+                bestRow = row;
+            }
+            else if (r > second) { second = r; }
+        }
+
+        // bounds of everything else (likely labels are marked NaN above)
+        for (int other = 0; other < this.names.length; other++) {
+            if (search.bounds[other] > second*second) { second = Math.sqrt(search.bounds[other]); }
+        }
+        if ((bestRow >= 0) && (best >= accept) && (best > second) && (best - second >= margin)) {
+            search.accepted = true;
+            return this.names[bestRow];
+        }
+
+        // go on with the usual search from the best likely label
+        return this.search(sample, mean, norm, search, bestRow, (bestRow < 0) ? Double.NEGATIVE_INFINITY : best*best);
+    }
+
+
+    /**
+     * Predicts the most likely labels of several sample images at once, e.g.
+     * the name regions of a group of frames. Each proto is scored against
+     * every sample while it is at hand, so the bank is read once per batch.
+     *
+     * @param samples images to classify
+     * @param count number of samples to classify, from the start of samples
+     * @param validLabels valid output labels to choose from, for every sample
+     * @param target where to put the most likely label of each sample
+     * @return target
+     */
+    public String[] predict(Matrix2D[] samples, int count, Collection<String> validLabels, String[] target) {
+        double[] means = new double[count];
+        double[] norms = new double[count];
+        double[] maxScores = new double[count];
+        for (int s = 0; s < count; s++) {
+            means[s] = samples[s].sum() / this.size;
+            norms[s] = centered_norm(samples[s], means[s]);
+            maxScores[s] = Double.NEGATIVE_INFINITY;
+            target[s] = null;
+        }
+        double score;
+        Integer row;
+        for (String name : (validLabels == null) ? Arrays.asList(this.names) : validLabels) {
+            row = this.nameRows.get(name);
+            if (row == null) { continue; }
+            for (int s = 0; s < count; s++) {
+                score = this.dot(row, samples[s], means[s]) / norms[s];
+                score *= score;
+                if (score > maxScores[s]) {
+                    maxScores[s] = score;
+                    target[s] = name;
+                }
+            }
+        }
+        return target;
+    }
+
     public Matrix2D predict(Matrix2D input) {
         throw new IllegalArgumentException("No method defined for this set of inputs.");
     }
@@ -122,12 +402,55 @@ public class AverageImage extends Network implements Serializable {
 
     public int[] get_input_shape(){ return this.inputShape; }
 
+
+    /** Gets the principal components used for the coarse pass, or null if there is none. */
+    public Matrix2D get_components() { return this.components; }
+
+
+    /**
+     * Sets principal components of the packed protos (see <code>get_packed_protos</code>)
+     * to use for the coarse pass, one per row with unit norm. Null turns the
+     * coarse pass off. Not safe while other threads are predicting.
+     */
+    public void set_components(Matrix2D components) {
+        if ((components != null) && (components.c() != this.size)) {
+            throw new IllegalArgumentException("Components must have one column per proto image pixel.");
+        }
+        this.components = components;
+        this.project();
+    }
+
+
+    /** Gets a copy of the protos as packed for matching: zero mean and unit norm, one per row. */
+    public Matrix2D get_packed_protos() {
+        Matrix2D output = new Matrix2D(this.names.length, this.size);
+        for (int c = 0; c < this.bank.length; c++) { output.set_by_flat(c, this.bank[c]); }
+        return output;
+    }
+
+
+    /** Makes buffers for the coarse pass of <code>predict(sample, validLabels, search)</code>, e.g. one per detector. */
+    public Search new_search() { return new Search(this); }
+
     public void set_threshold(double threshold) { this.binaryThreshold = threshold; }
 
+    /** Gets the threshold text pixels of the protos were found with when training. */
+    public double get_threshold() { return this.binaryThreshold; }
+
+    /** Gets the proto image of each name, as trained. These must not be changed. */
+    public HashMap<String, Matrix2D> get_proto_images() { return this.protoImages; }
+
 
     ///////////////////////////////////////////////////////////////////////////
     // SERIALIZATION //////////////////////////////////////////////////////////
     ///////////////////////////////////////////////////////////////////////////
+    /** Reads the proto images as saved, then packs them into the bank. */
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        this.pack();
+    }
+
+
     /**
      * Saves the caller to a serialized file on disk.
      *
@@ -175,4 +498,26 @@ public class AverageImage extends Network implements Serializable {
         return output;
     }
 
+
+
+
+    /** Buffers for one thread's coarse passes over a model's protos. */
+    public static class Search {
+        private double[] coords;
+        private double[] bounds;
+        private boolean accepted = false;
+
+        /** Checks whether the last prediction with likely labels took one of them early. */
+        public boolean accepted() { return this.accepted; }
+
+        private Search(AverageImage model) {
+            this.coords = new double[(model.components == null) ? 0 : model.components.r()];
+            this.bounds = new double[model.names.length];
+        }
+
+        /** Checks whether the buffers are big enough for the model's coarse pass. */
+        private boolean fits(AverageImage model) {
+            return (this.coords.length >= model.components.r()) && (this.bounds.length >= model.names.length);
+        }
+    }
 }
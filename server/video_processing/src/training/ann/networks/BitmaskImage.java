@@ -0,0 +1,196 @@
+/*
+Copyright 2018 Austin Walker Milt
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package training.ann.networks;
+
+import training.math.Matrix2D;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Matches name images against proto images by how many pixels disagree
+ * about being text, as a faster alternative to the correlations of
+ * AverageImage.
+ * <p>
+ * Text pixels of protos are those over a threshold relative to the proto's
+ * brightest pixel. Text pixels of samples are those over the threshold
+ * between the sample's background and text levels, i.e. the means of its
+ * pixels below and above its mean, so binarizing doesnt depend on the
+ * sample's scale or a few bright pixels of noise. Each proto is packed 64
+ * pixels to a long as a bitmask of its text pixels plus a mask of the
+ * pixels that count, i.e. those not within a margin of the threshold, so
+ * blurry edges of protos dont count against a sample. Scoring a sample is
+ * then an XOR, an AND and a bit count per long.
+ *
+ * @author Austin Milt
+ */
+public class BitmaskImage extends Network {
+
+    private double threshold;
+    private int[] inputShape;
+    private int size;
+    private int words;
+    private String[] names;
+    private HashMap<String, Integer> nameRows;
+    private long[] bits;
+    private long[] weights;
+
+
+    /**
+     * Creates a BitmaskImage from proto images of the same shape.
+     *
+     * @param protoImages proto image of each name
+     * @param threshold threshold of text pixels, as a fraction of a proto's brightest pixel or of the way from a sample's background to text level
+     * @param margin pixels of protos within this margin of the threshold dont count
+     */
+    public BitmaskImage(Map<String, Matrix2D> protoImages, double threshold, double margin) {
+        this.threshold = threshold;
+        int n = protoImages.size();
+        this.names = new String[n];
+        this.nameRows = new HashMap<>(2 * n);
+        int row = 0;
+        for (Map.Entry<String, Matrix2D> entry : protoImages.entrySet()) {
+            Matrix2D proto = entry.getValue();
+            if (this.inputShape == null) {
+                this.inputShape = new int[]{proto.r(), proto.c()};
+                this.size = proto.size();
+                this.words = (this.size + 63) / 64;
+                this.bits = new long[n * this.words];
+                this.weights = new long[n * this.words];
+            }
+            else if ((proto.r() != this.inputShape[0]) || (proto.c() != this.inputShape[1])) {
+                throw new IllegalArgumentException("Proto image shapes must be identical.");
+            }
+            double max = proto.max();
+            double v;
+            int offset = row * this.words;
+            for (int c = 0; c < this.size; c++) {
+                v = proto.get_by_flat(c) / max;
+                if (v > threshold) { this.bits[offset + c / 64] |= 1L << (c % 64); }
+                if (Math.abs(v - threshold) >= margin) { this.weights[offset + c / 64] |= 1L << (c % 64); }
+            }
+            this.names[row] = entry.getKey();
+            this.nameRows.put(entry.getKey(), row);
+            row += 1;
+        }
+    }
+
+
+    /** Creates a BitmaskImage from the protos and threshold of a trained AverageImage. */
+    public static BitmaskImage from(AverageImage model, double margin) {
+        return new BitmaskImage(model.get_proto_images(), model.get_threshold(), margin);
+    }
+
+
+    /** Makes a buffer for the bitmask of a sample, e.g. one per detector. */
+    public long[] new_buffer() { return new long[this.words]; }
+
+
+    /** Packs the text pixels of an image into the target bitmask. */
+    public long[] binarize(Matrix2D image, long[] target) {
+        double mean = image.sum() / this.size;
+        double low = 0d;
+        double high = 0d;
+        int lows = 0;
+        double v;
+        for (int c = 0; c < this.size; c++) {
+            v = image.get_by_flat(c);
+            if (v > mean) { high += v; }
+            else {
+                low += v;
+                lows += 1;
+            }
+        }
+        low = (lows == 0) ? mean : low / lows;
+        high = (lows == this.size) ? mean : high / (this.size - lows);
+        double cut = low + this.threshold * (high - low);
+        for (int w = 0; w < this.words; w++) { target[w] = 0L; }
+        for (int c = 0; c < this.size; c++) {
+            if (image.get_by_flat(c) > cut) { target[c / 64] |= 1L << (c % 64); }
+        }
+        return target;
+    }
+
+
+    /**
+     * Predicts the most likely label of the given sample image.
+     * <p>
+     * Best label is the one whose proto disagrees with the sample on the
+     * fewest counted pixels.
+     *
+     * @param sample image to classify
+     * @param validLabels valid output labels to choose from
+     * @return most likely label
+     */
+    public String predict(Matrix2D sample, Collection<String> validLabels) {
+        return this.predict(sample, validLabels, this.new_buffer());
+    }
+
+
+    /**
+     * Like <code>predict(sample, validLabels)</code>, but binarizes the sample
+     * into the given buffer (see <code>new_buffer</code>) rather than a new one.
+     */
+    public String predict(Matrix2D sample, Collection<String> validLabels, long[] buffer) {
+        this.binarize(sample, buffer);
+        int minErrors = Integer.MAX_VALUE;
+        int errors;
+        String bestLabel = null;
+        if (validLabels == null) {
+            for (int row = 0; row < this.names.length; row++) {
+                errors = this.errors(row, buffer);
+                if (errors < minErrors) {
+                    minErrors = errors;
+                    bestLabel = this.names[row];
+                }
+            }
+            return bestLabel;
+        }
+        Integer row;
+        for (String name : validLabels) {
+            row = this.nameRows.get(name);
+            if (row == null) { continue; }
+            errors = this.errors(row, buffer);
+            if (errors < minErrors) {
+                minErrors = errors;
+                bestLabel = name;
+            }
+        }
+        return bestLabel;
+    }
+
+
+    /** Counts the counted pixels where a proto and a sample's bitmask disagree. */
+    private int errors(int row, long[] sample) {
+        int offset = row * this.words;
+        int errors = 0;
+        for (int w = 0; w < this.words; w++) {
+            errors += Long.bitCount((sample[w] ^ this.bits[offset + w]) & this.weights[offset + w]);
+        }
+        return errors;
+    }
+
+
+    public Matrix2D predict(Matrix2D input) {
+        throw new IllegalArgumentException("No method defined for this set of inputs.");
+    }
+
+
+    public int[] get_input_shape(){ return this.inputShape; }
+}
@@ -20,6 +20,7 @@ package training.math;
 import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.text.DecimalFormat;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
@@ -33,6 +34,8 @@ import java.util.NoSuchElementException;
  */
 public class Matrix2D implements Iterable<Double>, Serializable {
 
+    private static final long serialVersionUID = 2139758165598925234L;
+
     ///////////////////////////////////////////////////////////////////////////
     // CLASS AND INSTANCE VARIABLES ///////////////////////////////////////////
     ///////////////////////////////////////////////////////////////////////////
@@ -47,6 +50,12 @@ public class Matrix2D implements Iterable<Double>, Serializable {
     private static final boolean INPLACE = true;
     private static final boolean NEW = false;
 
+    // rows (of the inner dimension) and columns of the other matrix handled
+    // together in a dot product, sized so the block of the other matrix
+    // (128KB) stays in cache while every row of this matrix passes over it
+    private static final int DOT_BLOCK_INNER = 64;
+    private static final int DOT_BLOCK_COLUMNS = 256;
+
 
     
     ///////////////////////////////////////////////////////////////////////////
@@ -856,7 +865,17 @@ public class Matrix2D implements Iterable<Double>, Serializable {
     /** Performs a dot product (matrix multiplication) between two matrices and returns a new matrix or updates in place. */
     public Matrix2D dot(Matrix2D B, boolean target) { return dot(B, get_target_by_flag(target, this.shape[0], B.shape[1])); }
 
-    /** Performs a dot product (matrix multiplication) between two matrices and updates the target. */
+    /**
+     * Performs a dot product (matrix multiplication) between two matrices and
+     * updates the target.
+     * <p>
+     * Cells are read straight from the row-major data. The other matrix is
+     * passed over in blocks that fit in cache, with each row of this matrix
+     * scaling rows of the block into a row of the product, so every loop
+     * runs along contiguous data. Each product cell still sums its terms in
+     * order of the inner dimension, so results are the same as summing cell
+     * by cell.
+     */
     public Matrix2D dot(Matrix2D B, Matrix2D target){
         Matrix2D product;
         if (target == null){ product = new Matrix2D(this.shape[0], B.shape[1]); }
@@ -865,14 +884,131 @@ public class Matrix2D implements Iterable<Double>, Serializable {
             throw new IllegalArgumentException("Number of columns of this matrix must match rows of other.");
         }
         throw_shape_error(valid_shape(product.shape, this.shape[0], B.shape[1]));
-        int i;
+        int rows = this.shape[0];
+        int inner = this.shape[1];
+        int columns = B.shape[1];
+        double[] a = this.data;
+        double[] b = B.data;
+        double[] p = product.data;
+
+        // matrix times a column: one running sum per row
+        if (columns == 1) {
+            double sum;
+            for (int i = 0, ai = 0; i < rows; i++, ai += inner) {
+                sum = 0;
+                for (int k = 0; k < inner; k++) { sum += a[ai + k]*b[k]; }
+                p[i] = sum;
+            }
+            return product;
+        }
+
+        // column times a row: each cell is a single product (added to 0 like
+        // any other sum, so a -0 product comes out as 0)
+        if (inner == 1) {
+            for (int i = 0, pi = 0; i < rows; i++, pi += columns) {
+                for (int j = 0; j < columns; j++) { p[pi + j] = 0 + a[i]*b[j]; }
+            }
+            return product;
+        }
+
+        // blocked rows of this matrix times rows of the other. Four rows of
+        // the other are added per pass over a product row, in order, so the
+        // product row is loaded and stored a quarter as often
+        Arrays.fill(p, 0, product.size, 0);
+        int kStop;
+        int jStop;
+        int k;
+        int bk;
+        double a0;
+        double a1;
+        double a2;
+        double a3;
+        for (int k0 = 0; k0 < inner; k0 += DOT_BLOCK_INNER) {
+            kStop = Math.min(inner, k0 + DOT_BLOCK_INNER);
+            for (int j0 = 0; j0 < columns; j0 += DOT_BLOCK_COLUMNS) {
+                jStop = Math.min(columns, j0 + DOT_BLOCK_COLUMNS);
+                for (int i = 0, ai = 0, pi = 0; i < rows; i++, ai += inner, pi += columns) {
+                    for (k = k0, bk = k0*columns; k + 3 < kStop; k += 4, bk += 4*columns) {
+                        a0 = a[ai + k];
+                        a1 = a[ai + k + 1];
+                        a2 = a[ai + k + 2];
+                        a3 = a[ai + k + 3];
+                        for (int j = j0; j < jStop; j++) {
+                            p[pi + j] = p[pi + j] + a0*b[bk + j] + a1*b[bk + columns + j] + a2*b[bk + 2*columns + j] + a3*b[bk + 3*columns + j];
+                        }
+                    }
+                    for (; k < kStop; k++, bk += columns) {
+                        a0 = a[ai + k];
+                        for (int j = j0; j < jStop; j++) { p[pi + j] += a0*b[bk + j]; }
+                    }
+                }
+            }
+        }
+        return product;
+    }
+
+
+    /** Performs a dot product between this matrix and the transpose of another, and returns a new matrix. */
+    public Matrix2D dot_transposed(Matrix2D B) { return dot_transposed(B, null); }
+
+    /**
+     * Performs a dot product between this matrix and the transpose of another
+     * and updates the target, without transposing the other matrix. Gives
+     * the same result as <code>dot(B.transpose(), target)</code>.
+     * <p>
+     * Each product cell is a dot product of a row of this matrix and a row of
+     * the other, both contiguous. Four cells of a product row are summed at
+     * once, each in order, and rows of the other matrix are taken in blocks
+     * that stay in cache while every row of this matrix passes over them.
+     */
+    public Matrix2D dot_transposed(Matrix2D B, Matrix2D target){
+        Matrix2D product;
+        if (target == null){ product = new Matrix2D(this.shape[0], B.shape[0]); }
+        else { product = target; }
+        if (this.shape[1] != B.shape[1]){
+            throw new IllegalArgumentException("Number of columns of this matrix must match columns of other.");
+        }
+        throw_shape_error(valid_shape(product.shape, this.shape[0], B.shape[0]));
+        int rows = this.shape[0];
+        int inner = this.shape[1];
+        int columns = B.shape[0];
+        int block = Math.max(1, (DOT_BLOCK_INNER*DOT_BLOCK_COLUMNS) / Math.max(1, inner));
+        double[] a = this.data;
+        double[] b = B.data;
+        double[] p = product.data;
+        int jStop;
         int j;
-        for (int c = 0; c < product.size; c++){
-            i = product.flat2nested[c][0];
-            j = product.flat2nested[c][1];
-            product.data[c] = 0;
-            for (int k = 0; k < B.shape[0]; k++){
-                product.data[c] += this.get(i,k)*B.get(k,j);
+        int bj;
+        double aik;
+        double s0;
+        double s1;
+        double s2;
+        double s3;
+        for (int j0 = 0; j0 < columns; j0 += block) {
+            jStop = Math.min(columns, j0 + block);
+            for (int i = 0, ai = 0, pi = 0; i < rows; i++, ai += inner, pi += columns) {
+                for (j = j0, bj = j0*inner; j + 3 < jStop; j += 4, bj += 4*inner) {
+                    s0 = 0;
+                    s1 = 0;
+                    s2 = 0;
+                    s3 = 0;
+                    for (int k = 0; k < inner; k++) {
+                        aik = a[ai + k];
+                        s0 += aik*b[bj + k];
+                        s1 += aik*b[bj + inner + k];
+                        s2 += aik*b[bj + 2*inner + k];
+                        s3 += aik*b[bj + 3*inner + k];
+                    }
+                    p[pi + j] = s0;
+                    p[pi + j + 1] = s1;
+                    p[pi + j + 2] = s2;
+                    p[pi + j + 3] = s3;
+                }
+                for (; j < jStop; j++, bj += inner) {
+                    s0 = 0;
+                    for (int k = 0; k < inner; k++) { s0 += a[ai + k]*b[bj + k]; }
+                    p[pi + j] = s0;
+                }
             }
         }
         return product;
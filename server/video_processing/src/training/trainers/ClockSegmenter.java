@@ -0,0 +1,187 @@
+/*
+Copyright 2018 Austin Walker Milt
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package training.trainers;
+
+import options.Options;
+import training.math.Matrix2D;
+
+import java.io.IOException;
+
+/**
+ * Splits grayscale clock images into one sample per character.
+ * <p>
+ * Segmentation settings are read from the options file once, and the same
+ * sample matrices are reused for every image, so segmenting makes no garbage.
+ * Samples are only valid until the next call to <code>segment</code>, and a
+ * segmenter should only be used by one thread at a time.
+ * <p>
+ * Besides each character's sample, the segmenter keeps every character
+ * flattened into a column of one input matrix, so a network can predict all
+ * characters of an image in one pass.
+ *
+ * @author Austin Milt
+ */
+public class ClockSegmenter {
+
+    public static final int SEGMENT_WIDTH = 5;
+    private static final int[][] NO_SEGMENTS = new int[0][0];
+
+    private static Options options;
+    static {
+        try { options = new Options(); }
+        catch (IOException e) {
+            System.out.println("Couldnt load options file. Failure is imminent.");
+        }
+    }
+
+    private final double threshold;
+    private final int width010;
+    private final int width100;
+    private final int[][] positions001;
+    private final int[][] positions010;
+    private final int[][] positions100;
+    private Matrix2D[] segments = new Matrix2D[0];
+    private Matrix2D inputs = null;
+    private int rows = -1;
+
+
+    /** Creates a segmenter with the clock trainer's settings. */
+    public ClockSegmenter() {
+        this.threshold = options.CT.THRESHOLD();
+        this.width010 = options.CT.WIDTH_010();
+        this.width100 = options.CT.WIDTH_100();
+        this.positions001 = options.CT.SEGMENT_001();
+        this.positions010 = options.CT.SEGMENT_010();
+        this.positions100 = options.CT.SEGMENT_100();
+    }
+
+
+    /**
+     * Finds the column ranges of each character in the sample, based on the
+     * width of its text.
+     *
+     * @param sample grayscale clock image
+     * @return start (inclusive) and end (exclusive) columns of each character; empty if there is no text
+     */
+    public int[][] positions(Matrix2D sample) {
+        int cols = sample.c();
+        int rows = sample.r();
+        int start = cols;
+        int end = -1;
+        int startSum;
+        int endSum;
+
+        // scan the sample and check if any text pixels are detected. If both
+        // a start and end are detected, quit and move to the next step
+        for (int j = 0; j < cols; j++) {
+            startSum = 0;
+            endSum = 0;
+
+            // add up the number of text pixels in this column
+            for (int i = 0; i < rows; i++) {
+                if (sample.get(i, j) > this.threshold) { startSum += 1; }
+                if (sample.get(i, cols-j-1) > this.threshold) { endSum += 1; }
+            }
+
+            // if we've detected a start or end, update that
+            if ((start == cols) && (startSum >= 2)) { start = j; }
+            if ((end == -1) && (endSum >= 2)) { end = (cols - j); }
+
+            // if the start is less than the end, we've found the bounds and can quit
+            if (start < end) { break; }
+        }
+
+        // if no bounds were found, there's no text. Otherwise, determine if
+        // the clock is in the single, double, or triple digits of minutes
+        int width = end - start;
+        if (width <= 0) { return NO_SEGMENTS; }
+        else if (width >= this.width100) { return this.positions100; }
+        else if (width >= this.width010) { return this.positions010; }
+        else { return this.positions001; }
+    }
+
+
+    /**
+     * Splits the sample into characters, only taking the columns of each
+     * character from its first text pixels on, and zeroing anything that
+     * isnt text.
+     *
+     * @param sample grayscale clock image
+     * @return number of characters, whose samples can be gotten with <code>get_segment</code> and <code>get_inputs</code>
+     */
+    public int segment(Matrix2D sample) {
+        int[][] positions = this.positions(sample);
+        int rows = sample.r();
+        if ((rows != this.rows) || (this.segments.length < positions.length)) { this.allocate(rows, positions.length); }
+        Matrix2D segment;
+        double v;
+        for (int s = 0; s < positions.length; s++) {
+            segment = this.segments[s];
+            for (int c = 0; c < segment.size(); c++) { segment.set_by_flat(c, 0d); }
+            boolean sampling = false;
+            int c = 0;
+            for (int j = positions[s][0]; j < positions[s][1]; j++) {
+
+                // start sampling at the first column with a text pixel
+                if (!sampling) {
+                    for (int i = 0; i < rows; i++) {
+                        if (sample.get(i, j) > this.threshold) {
+                            sampling = true;
+                            break;
+                        }
+                    }
+                }
+
+                // sample this text column. Only take the values of text;
+                // everything else stays zero
+                if (sampling) {
+                    for (int i = 0; i < rows; i++) {
+                        v = sample.get(i, j);
+                        if (v > this.threshold) { segment.set(i, c, v); }
+                    }
+                    c += 1;
+                }
+            }
+            for (c = 0; c < segment.size(); c++) { this.inputs.set(c, s, segment.get_by_flat(c)); }
+        }
+        return positions.length;
+    }
+
+
+    /** Gets a character's sample from the last call to segment, with SEGMENT_WIDTH columns. */
+    public Matrix2D get_segment(int i) { return this.segments[i]; }
+
+
+    /**
+     * Gets the characters' samples from the last call to segment, each
+     * flattened into a column for a network. Column i is character i;
+     * columns past the number of characters hold stale samples. The matrix
+     * is only replaced when the image size changes.
+     */
+    public Matrix2D get_inputs() { return this.inputs; }
+
+
+    /** Makes sample matrices for images with the given number of rows. */
+    private void allocate(int rows, int count) {
+        count = Math.max(count, Math.max(this.positions001.length, Math.max(this.positions010.length, this.positions100.length)));
+        this.segments = new Matrix2D[count];
+        this.inputs = new Matrix2D(rows * SEGMENT_WIDTH, count);
+        for (int s = 0; s < count; s++) { this.segments[s] = new Matrix2D(rows, SEGMENT_WIDTH); }
+        this.rows = rows;
+    }
+}
@@ -20,6 +20,7 @@ package training.trainers;
 import org.opencv.core.Mat;
 import org.opencv.imgcodecs.Imgcodecs;
 import image_libraries.ClockImageLibrary;
+import image_libraries.FrameConverter;
 import image_libraries.Image;
 import training.ann.layers.InputLayer;
 import training.ann.layers.LeakyReLULayer;
@@ -138,25 +139,7 @@ public class ClockTrainerDigitANN extends Trainer {
      * @param target target Matrix2D to feed further through detection
      * @return target
      */
-    public static Matrix2D frame_to_matrix2d(Mat frame, Matrix2D target){
-        if (target == null) { target = new Matrix2D(frame.rows(), frame.cols()); }
-        int rows = frame.rows();
-        int cols = frame.cols();
-        double[] pixel;
-        double gray;
-        int c = 0;
-        for (int i = 0; i < rows; i++){
-            for (int j = 0; j < cols; j++){
-
-                // turn the pixel to grayscale and assign to the output
-                pixel = frame.get(i, j);
-                gray = Image.luminosity((int) pixel[0], (int) pixel[1], (int) pixel[2]) / 255d;
-                target.set_by_flat(c, gray);
-                c += 1;
-            }
-        }
-        return target;
-    }
+    public static Matrix2D frame_to_matrix2d(Mat frame, Matrix2D target){ return new FrameConverter().to_matrix2d(frame, target); }
 
     /** Prepares a grayscale image for passing into a neural network for detection. */
     public static Matrix2D prepare_input(Matrix2D input){
@@ -181,95 +164,16 @@ public class ClockTrainerDigitANN extends Trainer {
     }
 
 
-    public static int[][] determine_segment_positions(Matrix2D sample) {
-        int[][] output;
-        int cols = sample.c();
-        int start = cols;
-        int end = -1;
-        int startSum;
-        int endSum;
-
-        // scan the sample and check if any text pixels are detected. If both
-        // a start and end are detected, quit and move to the next step
-        for (int j = 0; j < cols; j++) {
-            startSum = 0;
-            endSum = 0;
-
-            // add up the number of text pixels in this column
-            for (int i = 0; i < sample.r(); i++) {
-                if (sample.get(i, j) > options.CT.THRESHOLD()) { startSum += 1; }
-                if (sample.get(i, cols-j-1) > options.CT.THRESHOLD()) { endSum += 1; }
-            }
-
-            // if we've detected a start or end, update that
-            if ((start == cols) && (startSum >= 2)) { start = j; }
-            if ((end == -1) && (endSum >= 2)) { end = (cols - j); }
-
-            // if the start is less than the end, we've found the bounds and can quit
-            if (start < end) { break; }
-        }
-
-        // if no bounds were found, there's no text and we can return an empty
-        // result. Otherwise, determine if the clock is in the single, double, or
-        // triple digits of minutes and return segment positions based on that
-        int width = end - start;
-        if (width <= 0) { output = new int[0][0]; }
-        else if (width >= options.CT.WIDTH_100()) { output = options.CT.SEGMENT_100(); }
-        else if (width >= options.CT.WIDTH_010()) { output = options.CT.SEGMENT_010(); }
-        else { output = options.CT.SEGMENT_001(); }
-        //                                                     MINUTES                            SECONDS
-        //                                           hundreds    tens      ones       :        tens      ones
-//        else if (width >= 26) { output = new int[][]{{11, 16}, {17, 22}, {22, 27}, {27, 30}, {31, 35}, {36, 41}}; }
-//        else if (width >= 21) { output = new int[][]{          {14, 19}, {19, 24}, {25, 28}, {28, 33}, {33, 39}}; }
-//        else {                  output = new int[][]{                    {18, 23}, {23, 27}, {27, 32}, {32, 38}}; }
-        return output;
-    }
+    /** Finds the column ranges of each character in a clock image. See <code>ClockSegmenter.positions</code>. */
+    public static int[][] determine_segment_positions(Matrix2D sample) { return new ClockSegmenter().positions(sample); }
 
 
+    /** Splits a clock image into new samples, one per character. See <code>ClockSegmenter.segment</code>. */
     public static ArrayList<Matrix2D> segment_characters(Matrix2D sample) {
-        ArrayList<Matrix2D> output = new ArrayList<>();
-        int[][] segmentPositions = determine_segment_positions(sample);
-
-        // for each of the segments, only take columns between start and end of
-        // text pixels
-        for (int[] segmentPosition : segmentPositions) {
-            boolean sampling = false;
-            Matrix2D segment = new Matrix2D(sample.r(), 5);
-            int c = 0;
-            double v;
-            for (int j = segmentPosition[0]; j < segmentPosition[1]; j++){
-
-                // determine if we should start sampling (if no pixels have been
-                // determined to be text yet)
-                if (!sampling) {
-                    int pixels = 0;
-                    for (int i = 0; i < sample.r(); i++) {
-                        if (sample.get(i, j) > options.CT.THRESHOLD()) {
-                            pixels += 1;
-                        }
-                        if (pixels >= 1) {
-                            sampling = true;
-                            break;
-                        }
-                    }
-                }
-
-                // sample this text column. Only take the values of text;
-                // everything else gets zeroes
-                if (sampling) {
-                    for (int i = 0; i < sample.r(); i++) {
-                        v = sample.get(i, j);
-                        if (v > options.CT.THRESHOLD()) {
-                            segment.set(i, c, v);
-                        }
-                    }
-                    c += 1;
-                }
-            }
-
-            // add the segment to the output
-            output.add(segment);
-        }
+        ClockSegmenter segmenter = new ClockSegmenter();
+        int segments = segmenter.segment(sample);
+        ArrayList<Matrix2D> output = new ArrayList<>(segments);
+        for (int i = 0; i < segments; i++) { output.add(segmenter.get_segment(i).copy()); }
         return output;
     }
 
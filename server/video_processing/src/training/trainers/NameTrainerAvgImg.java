@@ -30,6 +30,7 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Set;
 import java.util.UUID;
@@ -222,6 +223,9 @@ public class NameTrainerAvgImg extends Trainer {
         // save detection object to disk
         AverageImage detectionObject = new AverageImage(name2Proto);
         detectionObject.set_threshold(options.NT.BINARY_THRESHOLD());
+        if (options.ND.PRINCIPAL_COMPONENTS() > 0) {
+            detectionObject.set_components(principal_components(detectionObject, options.ND.PRINCIPAL_COMPONENTS()));
+        }
         try { detectionObject.save(options.ND.NETWORK().getAbsolutePath()); }
         catch (IOException e) {
             System.out.println("Couldnt save");
@@ -229,6 +233,115 @@ public class NameTrainerAvgImg extends Trainer {
     }
 
 
+    /**
+     * Finds the principal components of a name model's packed protos, i.e.
+     * the directions that keep the most of their correlations with samples,
+     * for the coarse pass of name matching.
+     *
+     * @param model model whose protos to use
+     * @param count most components to find (fewer if the protos dont need that many)
+     * @return components, one per row with unit norm
+     */
+    public static Matrix2D principal_components(AverageImage model, int count) {
+
+        // the components are the protos' singular vectors, found from the
+        // eigenvectors of the (much smaller) matrix of dot products between protos
+        Matrix2D protos = model.get_packed_protos();
+        int n = protos.r();
+        int d = protos.c();
+        double[][] gram = new double[n][n];
+        double v;
+        for (int a = 0; a < n; a++) {
+            for (int b = a; b < n; b++) {
+                v = 0d;
+                for (int c = 0; c < d; c++) { v += protos.get(a, c) * protos.get(b, c); }
+                gram[a][b] = v;
+                gram[b][a] = v;
+            }
+        }
+        double[][] vectors = new double[n][n];
+        double[] values = symmetric_eigen(gram, vectors);
+
+        // take the components with the largest eigenvalues
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) { order[i] = i; }
+        Arrays.sort(order, (i, j) -> Double.compare(values[j], values[i]));
+        int m = 0;
+        while ((m < Math.min(count, n)) && (values[order[m]] > 1e-9 * values[order[0]])) { m += 1; }
+        Matrix2D components = new Matrix2D(m, d);
+        double scale;
+        for (int j = 0; j < m; j++) {
+            scale = 1d / Math.sqrt(values[order[j]]);
+            for (int c = 0; c < d; c++) {
+                v = 0d;
+                for (int a = 0; a < n; a++) { v += vectors[a][order[j]] * protos.get(a, c); }
+                components.set(j, c, v * scale);
+            }
+        }
+        return components;
+    }
+
+
+    /**
+     * Finds the eigenvalues and eigenvectors of a symmetric matrix with
+     * cyclic Jacobi rotations.
+     *
+     * @param matrix symmetric matrix (overwritten)
+     * @param vectors where to put the eigenvectors, one per column
+     * @return eigenvalues, in the order of the columns of vectors
+     */
+    private static double[] symmetric_eigen(double[][] matrix, double[][] vectors) {
+        int n = matrix.length;
+        for (int i = 0; i < n; i++) {
+            Arrays.fill(vectors[i], 0d);
+            vectors[i][i] = 1d;
+        }
+        double off;
+        double theta;
+        double t;
+        double cos;
+        double sin;
+        double x;
+        double y;
+        for (int sweep = 0; sweep < 100; sweep++) {
+            off = 0d;
+            for (int p = 0; p < n; p++) { for (int q = p + 1; q < n; q++) { off += matrix[p][q] * matrix[p][q]; } }
+            if (off < 1e-30) { break; }
+            for (int p = 0; p < n; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    if (matrix[p][q] == 0d) { continue; }
+                    theta = (matrix[q][q] - matrix[p][p]) / (2d * matrix[p][q]);
+                    t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta*theta + 1d));
+                    if (theta == 0d) { t = 1d; }
+                    cos = 1d / Math.sqrt(t*t + 1d);
+                    sin = t * cos;
+                    for (int k = 0; k < n; k++) {
+                        x = matrix[k][p];
+                        y = matrix[k][q];
+                        matrix[k][p] = cos*x - sin*y;
+                        matrix[k][q] = sin*x + cos*y;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        x = matrix[p][k];
+                        y = matrix[q][k];
+                        matrix[p][k] = cos*x - sin*y;
+                        matrix[q][k] = sin*x + cos*y;
+                    }
+                    for (int k = 0; k < n; k++) {
+                        x = vectors[k][p];
+                        y = vectors[k][q];
+                        vectors[k][p] = cos*x - sin*y;
+                        vectors[k][q] = sin*x + cos*y;
+                    }
+                }
+            }
+        }
+        double[] values = new double[n];
+        for (int i = 0; i < n; i++) { values[i] = matrix[i][i]; }
+        return values;
+    }
+
+
     public static void main(String[] args) throws IOException {
         NameTrainerAvgImg trainer = new NameTrainerAvgImg();
         trainer.train();
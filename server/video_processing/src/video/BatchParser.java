@@ -0,0 +1,249 @@
+/*
+Copyright 2018 Austin Walker Milt
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package video;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses several videos at once in one process, with every thread sharing
+ * one loaded copy of each detection model.
+ * <p>
+ * Each video is cut into chunks of sampled frames, and chunks are queued
+ * round-robin across videos so a long video cant hold up shorter ones. Chunks
+ * are spooled to temporary files and copied to the video's results in order
+ * as soon as all earlier chunks are done. A video's results are only opened
+ * once its first chunk is done, and are deleted if it fails.
+ * <p>
+ * Jobs are given in a file with one JSON object per line, with the same
+ * fields as ParseServer requests, e.g.
+ * <p>
+ * {"video": "/path/to/video.mp4", "output": "/path/to/results.csv", "skip": 1, "labels": "/path/to/labels.csv", "format": "csv"}
+ */
+public class BatchParser {
+
+    private DetectorPool detectorPool = new DetectorPool();
+    private ArrayList<Job> jobs = new ArrayList<>();
+    private int threads;
+    private double chunkSeconds;
+    private double defaultSkip;
+    private boolean defaultSkipFrames;
+    private String defaultFormat;
+
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param threads number of chunks to parse at once
+     * @param chunkSeconds seconds of video in each chunk
+     * @param defaultSkip seconds (or frames) between parsing events when a job doesnt say
+     * @param defaultSkipFrames whether defaultSkip is in frames rather than seconds
+     * @param defaultFormat results format when a job doesnt say
+     */
+    public BatchParser(int threads, double chunkSeconds, double defaultSkip, boolean defaultSkipFrames, String defaultFormat) {
+        this.threads = threads;
+        this.chunkSeconds = chunkSeconds;
+        this.defaultSkip = defaultSkip;
+        this.defaultSkipFrames = defaultSkipFrames;
+        this.defaultFormat = defaultFormat;
+    }
+
+
+    /**
+     * Adds the jobs in a file of JSON lines.
+     *
+     * @param path path to the jobs file
+     * @throws IOException when the file cant be read or a job cant be opened
+     */
+    public void add_jobs(String path) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(path), StandardCharsets.UTF_8));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) { continue; }
+                HashMap<String, Object> request;
+                try { request = ParseServer.parse_json(line); }
+                catch (IllegalArgumentException e) { throw new IOException(String.format("Bad job in %s: %s", path, e.getMessage())); }
+                String video = ParseServer.get_string(request, "video", null);
+                String output = ParseServer.get_string(request, "output", null);
+                if ((video == null) || (output == null)) { throw new IOException(String.format("Jobs in %s need a video and an output.", path)); }
+                this.add_job(video, output, request, ParseServer.get_string(request, "labels", null), ParseServer.get_string(request, "format", this.defaultFormat));
+            }
+        }
+        finally { reader.close(); }
+    }
+
+
+    /** Adds a job, opening its video. Its output is opened when there are results to write. */
+    private void add_job(String video, String output, HashMap<String, Object> request, String labels, String format) throws IOException {
+        if (!format.equals(ResultWriter.FORMAT_CSV) && !format.equals(ResultWriter.FORMAT_BINARY)) {
+            throw new IOException(String.format("Unknown results format %s for %s", format, output));
+        }
+        VideoParser parser = new VideoParser(video, this.detectorPool);
+        Job job = new Job();
+        job.parser = parser;
+        job.output = output;
+        job.format = format;
+        double defaultSeconds = this.defaultSkipFrames ? (this.defaultSkip / parser.get_fps()) : this.defaultSkip;
+        job.skip = ParseServer.get_skip(request, parser.get_fps(), defaultSeconds);
+        job.validLabels = (labels == null) ? null : parser.load_valid_labels(labels);
+        job.detectorKeys = parser.get_detector_keys();
+
+        // chunk bounds fall on multiples of skip and of the detectors'
+        // strides, like segments in parse()
+        int samples = Math.max(0, (parser.get_frames() - 1) / job.skip);
+        int align = parser.get_stride_alignment(job.skip);
+        int chunkSamples = Math.max(1, (int) Math.round(this.chunkSeconds * parser.get_fps() / job.skip));
+        chunkSamples = align * ((chunkSamples + align - 1) / align);
+        int chunks = (samples + chunkSamples - 1) / chunkSamples;
+        job.bounds = new int[chunks + 1];
+        for (int k = 0; k <= chunks; k++) { job.bounds[k] = job.skip * Math.min(k * chunkSamples, samples); }
+        job.spools = new File[chunks];
+        job.done = new boolean[chunks];
+
+        // chunks borrow their own detectors
+        parser.release();
+        this.jobs.add(job);
+    }
+
+
+    /**
+     * Parses every job, returning once all are finished.
+     *
+     * @return number of jobs that failed
+     * @throws InterruptedException when interrupted while waiting for jobs
+     */
+    public int run() throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        int rounds = 0;
+        for (Job job : this.jobs) {
+            rounds = Math.max(rounds, job.done.length);
+            job.parser.get_timings().reset();
+            if (job.done.length == 0) {
+                try { job.finish(); }
+                catch (IOException e) { job.fail(e); }
+            }
+        }
+        for (int k = 0; k < rounds; k++) {
+            for (Job job : this.jobs) {
+                if (k >= job.done.length) { continue; }
+                int chunk = k;
+                executor.execute(() -> job.parse_chunk(chunk));
+            }
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        int failed = 0;
+        for (Job job : this.jobs) {
+            if (job.error != null) {
+                failed += 1;
+                System.out.println(String.format("Failed to parse %s: %s", job.output, job.error));
+            }
+        }
+        return failed;
+    }
+
+
+
+    /** A video being parsed in chunks. */
+    private static class Job {
+        private VideoParser parser;
+        private String output;
+        private String format;
+        private String[] detectorKeys;
+        private int skip;
+        private HashMap<String, OrderedIntervals> validLabels;
+        private ResultWriter writer = null;
+        private int[] bounds;
+        private File[] spools;
+        private boolean[] done;
+        private int written = 0;
+        private volatile Exception error = null;
+
+        /** Parses a chunk into its spool, then writes any chunks that are ready. */
+        private void parse_chunk(int chunk) {
+            VideoParser chunkParser = null;
+            File spoolFile = null;
+            try {
+                spoolFile = this.make_spool(chunk);
+                if (spoolFile == null) { return; }
+                ResultWriter spool = new BinaryResultWriter(spoolFile.getAbsolutePath(), this.detectorKeys);
+                chunkParser = new VideoParser(this.parser);
+                try { chunkParser.parse(this.skip, this.validLabels, this.bounds[chunk], this.bounds[chunk + 1], spool, false); }
+                finally { spool.close(); }
+                this.write_ready(chunk);
+            }
+            catch (Exception e) { this.fail(e); }
+            finally {
+                if (chunkParser != null) { chunkParser.release(); }
+                // fail() may have run before this chunk's spool was closed
+                if (this.error != null) { delete(spoolFile); }
+            }
+        }
+
+        /** Makes a chunk's spool, or returns null if the job has already failed. */
+        private synchronized File make_spool(int chunk) throws IOException {
+            if (this.error != null) { return null; }
+            this.spools[chunk] = File.createTempFile("vgv_chunk", ".bin");
+            return this.spools[chunk];
+        }
+
+        /** Marks a chunk done and copies every chunk that has no unfinished chunks before it to the results. */
+        private synchronized void write_ready(int chunk) throws IOException {
+            if (this.error != null) { return; }
+            this.done[chunk] = true;
+            if (this.done[0] && (this.writer == null)) { this.writer = ResultWriter.make(this.format, this.output, this.detectorKeys); }
+            while ((this.written < this.done.length) && this.done[this.written]) {
+                BinaryResultReader reader = new BinaryResultReader(this.spools[this.written].getAbsolutePath());
+                try { while (reader.hasNext()) { this.writer.write(reader.next()); } }
+                finally { reader.close(); }
+                delete(this.spools[this.written]);
+                this.written += 1;
+            }
+            if (this.written == this.done.length) { this.finish(); }
+        }
+
+        /** Closes the results once every chunk is written. */
+        private void finish() throws IOException {
+            if (this.writer == null) { this.writer = ResultWriter.make(this.format, this.output, this.detectorKeys); }
+            this.writer.close();
+            this.parser.get_timings().finish();
+            this.parser.get_timings().save(this.output + ParseTimings.EXTENSION);
+            System.out.println(String.format("Finished %s.", this.output));
+        }
+
+        /** Stops the job after an error, deleting its partial results. */
+        private synchronized void fail(Exception e) {
+            if (this.error != null) { return; }
+            this.error = e;
+            if (this.writer != null) {
+                try { this.writer.close(); }
+                catch (IOException ignored) {}
+                delete(new File(this.output));
+            }
+            for (File spool : this.spools) { delete(spool); }
+        }
+
+        private static void delete(File file) {
+            if ((file != null) && file.exists() && !file.delete()) { file.deleteOnExit(); }
+        }
+    }
+}
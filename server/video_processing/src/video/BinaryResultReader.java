@@ -0,0 +1,128 @@
+/*
+Copyright 2018 Austin Walker Milt
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package video;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads results written by a BinaryResultWriter back one frame at a time.
+ * A file that ends without its final block marker (e.g. the writer was
+ * interrupted) is read up to its last complete block.
+ *
+ * @see BinaryResultWriter
+ */
+public class BinaryResultReader implements Iterator<VideoParser.ParserResult>, Closeable {
+
+    private DataInputStream in;
+    private String[] detectorKeys;
+    private ArrayList<ArrayList<String>> dictionaries;
+    private int rows = 0;
+    private int r = 0;
+    private int[] frames = new int[0];
+    private double[] times = new double[0];
+    private int[][] codes;
+
+
+    /**
+     * Opens a binary results file and reads its header.
+     *
+     * @param path path to the results file
+     * @throws IOException when the file cant be read or isnt a results file
+     */
+    public BinaryResultReader(String path) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)));
+        byte[] magic = new byte[BinaryResultWriter.MAGIC.length];
+        this.in.readFully(magic);
+        if (!Arrays.equals(magic, BinaryResultWriter.MAGIC)) { throw new IOException(String.format("%s is not a binary results file.", path)); }
+        int version = this.in.readInt();
+        if (version != BinaryResultWriter.VERSION) { throw new IOException(String.format("Unsupported binary results version %d.", version)); }
+        int n = this.in.readInt();
+        this.detectorKeys = new String[n];
+        this.dictionaries = new ArrayList<>(n);
+        this.codes = new int[n][0];
+        for (int i = 0; i < n; i++) {
+            this.detectorKeys[i] = this.in.readUTF();
+            this.dictionaries.add(new ArrayList<>());
+        }
+    }
+
+
+    /** Reads the next block of rows, returning false at the end of the file. */
+    private boolean read_block() throws IOException {
+        try {
+            int blockRows = this.in.readInt();
+            if (blockRows == 0) { return false; }
+            int n = this.detectorKeys.length;
+            ArrayList<ArrayList<String>> added = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                int count = this.in.readInt();
+                ArrayList<String> labels = new ArrayList<>(count);
+                for (int j = 0; j < count; j++) { labels.add(this.in.readUTF()); }
+                added.add(labels);
+            }
+            if (this.frames.length < blockRows) {
+                this.frames = new int[blockRows];
+                this.times = new double[blockRows];
+                this.codes = new int[n][blockRows];
+            }
+            for (int j = 0; j < blockRows; j++) { this.frames[j] = this.in.readInt(); }
+            for (int j = 0; j < blockRows; j++) { this.times[j] = this.in.readDouble(); }
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < blockRows; j++) { this.codes[i][j] = this.in.readInt(); }
+            }
+            for (int i = 0; i < n; i++) { this.dictionaries.get(i).addAll(added.get(i)); }
+            this.rows = blockRows;
+            this.r = 0;
+            return true;
+        }
+        catch (EOFException e) { return false; }
+    }
+
+
+    public boolean hasNext() {
+        if (this.r < this.rows) { return true; }
+        try { return this.read_block(); }
+        catch (IOException e) { throw new UncheckedIOException(e); }
+    }
+
+
+    public VideoParser.ParserResult next() {
+        if (!this.hasNext()) { throw new NoSuchElementException(); }
+        VideoParser.ParserResult result = new VideoParser.ParserResult(this.times[this.r], this.frames[this.r]);
+        int code;
+        for (int i = 0; i < this.detectorKeys.length; i++) {
+            code = this.codes[i][this.r];
+            result.put(this.detectorKeys[i], (code == BinaryResultWriter.NO_LABEL) ? null : this.dictionaries.get(i).get(code));
+        }
+        this.r += 1;
+        return result;
+    }
+
+
+    /** Gets the labels read so far for the i-th detector, in code order. */
+    ArrayList<String> get_labels(int i) { return this.dictionaries.get(i); }
+
+
+    /** Gets the keys of detectors in the file, in column order. */
+    public String[] get_detector_keys() { return this.detectorKeys; }
+
+
+    public void close() throws IOException { this.in.close(); }
+}
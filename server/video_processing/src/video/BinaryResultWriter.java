@@ -0,0 +1,168 @@
+/*
+Copyright 2018 Austin Walker Milt
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package video;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Writes video parsing results to a compact binary columnar file.
+ * <p>
+ * Rows are buffered into fixed-size blocks, and each block is written as
+ * columns: frame indices, times, then one column of label codes per detector.
+ * Labels are stored once per detector in a dictionary that grows as new
+ * labels appear, so memory use does not depend on the length of the video.
+ * <p>
+ * File layout (big-endian, strings as in DataOutputStream.writeUTF):
+ *
+ * "VGVR", int version, int detector count, [UTF detector key]...
+ * then blocks of:
+ *     int rows (0 ends the file)
+ *     for each detector: int new labels, [UTF label]... (codes continue from previous blocks)
+ *     int[rows] frames
+ *     double[rows] times
+ *     for each detector: int[rows] label codes (-1 for no label)
+ *
+ * @see BinaryResultReader
+ */
+public class BinaryResultWriter extends ResultWriter {
+
+    static final byte[] MAGIC = new byte[]{'V', 'G', 'V', 'R'};
+    static final int VERSION = 1;
+    static final int NO_LABEL = -1;
+    private static final int BLOCK_ROWS = 1024;
+
+    private DataOutputStream out;
+    private int rows = 0;
+    private int[] frames = new int[BLOCK_ROWS];
+    private double[] times = new double[BLOCK_ROWS];
+    private int[][] codes;
+    private ArrayList<HashMap<String, Integer>> dictionaries;
+    private int[] written;
+    private String[][] newLabels;
+
+
+    /**
+     * Opens a binary results file for writing and writes the header.
+     *
+     * @param path path to write results to (overwritten)
+     * @param detectorKeys keys of detectors whose results will be written, in column order
+     * @throws IOException when the output file cant be written to
+     */
+    public BinaryResultWriter(String path, String[] detectorKeys) throws IOException { this(path, detectorKeys, false); }
+
+
+    /**
+     * Opens a binary results file for writing.
+     * <p>
+     * When appending, the existing file is read to recover its label
+     * dictionaries and must not end with the final block marker.
+     *
+     * @param path path to write results to
+     * @param detectorKeys keys of detectors whose results will be written, in column order
+     * @param append whether to append to an existing file with the same detectors instead of overwriting
+     * @throws IOException when the output file cant be written to or doesnt match the detectors
+     */
+    public BinaryResultWriter(String path, String[] detectorKeys, boolean append) throws IOException {
+        super(detectorKeys);
+        int n = detectorKeys.length;
+        this.codes = new int[n][BLOCK_ROWS];
+        this.dictionaries = new ArrayList<>(n);
+        this.written = new int[n];
+        this.newLabels = new String[n][BLOCK_ROWS];
+        for (int i = 0; i < n; i++) { this.dictionaries.add(new HashMap<>()); }
+        if (append) {
+            BinaryResultReader reader = new BinaryResultReader(path);
+            try {
+                if (!Arrays.equals(reader.get_detector_keys(), detectorKeys)) {
+                    throw new IOException(String.format("Cannot append to %s, which has results for different detectors.", path));
+                }
+                while (reader.hasNext()) { reader.next(); }
+                for (int i = 0; i < n; i++) {
+                    for (String label : reader.get_labels(i)) { this.dictionaries.get(i).put(label, this.dictionaries.get(i).size()); }
+                    this.written[i] = this.dictionaries.get(i).size();
+                }
+            }
+            finally { reader.close(); }
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path, true)));
+            return;
+        }
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+        this.out.write(MAGIC);
+        this.out.writeInt(VERSION);
+        this.out.writeInt(n);
+        for (String key : detectorKeys) { this.out.writeUTF(key); }
+    }
+
+
+    public void write(VideoParser.ParserResult result) throws IOException {
+        this.frames[this.rows] = result.frame();
+        this.times[this.rows] = result.time();
+        String label;
+        Integer code;
+        for (int i = 0; i < this.detectorKeys.length; i++) {
+            label = result.get(this.detectorKeys[i]);
+            if (label == null) { code = NO_LABEL; }
+            else {
+                code = this.dictionaries.get(i).get(label);
+                if (code == null) {
+                    code = this.dictionaries.get(i).size();
+                    this.dictionaries.get(i).put(label, code);
+                    this.newLabels[i][code - this.written[i]] = label;
+                }
+            }
+            this.codes[i][this.rows] = code;
+        }
+        this.rows += 1;
+        if (this.rows == BLOCK_ROWS) { this.write_block(); }
+    }
+
+
+    /** Writes the buffered rows as a block. */
+    private void write_block() throws IOException {
+        if (this.rows == 0) { return; }
+        this.out.writeInt(this.rows);
+        int added;
+        for (int i = 0; i < this.detectorKeys.length; i++) {
+            added = this.dictionaries.get(i).size() - this.written[i];
+            this.out.writeInt(added);
+            for (int j = 0; j < added; j++) { this.out.writeUTF(this.newLabels[i][j]); }
+            this.written[i] += added;
+        }
+        for (int r = 0; r < this.rows; r++) { this.out.writeInt(this.frames[r]); }
+        for (int r = 0; r < this.rows; r++) { this.out.writeDouble(this.times[r]); }
+        for (int i = 0; i < this.detectorKeys.length; i++) {
+            for (int r = 0; r < this.rows; r++) { this.out.writeInt(this.codes[i][r]); }
+        }
+        this.rows = 0;
+    }
+
+
+    /** Writes any buffered rows to disk. */
+    public void flush() throws IOException {
+        this.write_block();
+        this.out.flush();
+    }
+
+
+    public void close() throws IOException {
+        this.write_block();
+        this.out.writeInt(0);
+        this.out.close();
+    }
+}
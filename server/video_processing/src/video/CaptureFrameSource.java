@@ -0,0 +1,67 @@
+/*
+Copyright 2018 Austin Walker Milt
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package video;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+
+import java.io.File;
+
+import static org.opencv.videoio.Videoio.*;
+
+/** Reads frames of a video file with an OpenCV VideoCapture. */
+public class CaptureFrameSource extends FrameSource {
+
+    private File file;
+    private VideoCapture video = new VideoCapture();
+
+
+    /** @param file video to read */
+    public CaptureFrameSource(File file) { this.file = file; }
+
+
+    public boolean open() {
+        this.video.open(this.file.getAbsolutePath());
+        return this.video.isOpened();
+    }
+
+    public boolean is_open() { return this.video.isOpened(); }
+
+    public void close() { this.video.release(); }
+
+    public boolean grab() { return this.video.grab(); }
+
+    public boolean retrieve(Mat target) { return this.video.retrieve(target); }
+
+    /** Grabs and retrieves the next frame with one call. */
+    public boolean read(Mat target) { return this.video.read(target); }
+
+    public void seek(int index) { this.video.set(CV_CAP_PROP_POS_FRAMES, index); }
+
+    public int index() { return (int) this.video.get(CV_CAP_PROP_POS_FRAMES); }
+
+    public double time() { return this.video.get(CV_CAP_PROP_POS_MSEC); }
+
+    public int frames() { return (int) this.video.get(CV_CAP_PROP_FRAME_COUNT); }
+
+    public double fps() { return this.video.get(CV_CAP_PROP_FPS); }
+
+    public int width() { return (int) this.video.get(CV_CAP_PROP_FRAME_WIDTH); }
+
+    public int height() { return (int) this.video.get(CV_CAP_PROP_FRAME_HEIGHT); }
+
+    public FrameSource copy() { return new CaptureFrameSource(this.file); }
+}
@@ -0,0 +1,174 @@
+/*
+Copyright 2018 Austin Walker Milt
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package video;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Passes results through to another writer, periodically flushing it and
+ * recording how far parsing has gotten in a checkpoint file next to the
+ * output. A parse that dies can then be resumed from the last checkpoint
+ * instead of from the start of the video.
+ */
+public class CheckpointWriter extends ResultWriter {
+
+    public static final String EXTENSION = ".ckpt";
+    private static final String KEY_FRAME = "frame";
+    private static final String KEY_RESULTS = "results";
+    private static final String KEY_BYTES = "bytes";
+    private static final String KEY_SKIP = "skip";
+    private static final String KEY_FORMAT = "format";
+    private static final String KEY_MODEL = "model";
+    private static final String KEY_SETTING = "setting.";
+
+    private ResultWriter writer;
+    private File output;
+    private File checkpoint;
+    private String format;
+    private int skip;
+    private String model;
+    private Map<String, String> settings;
+    private int interval;
+    private int results;
+    private int frame = -1;
+
+
+    /**
+     * Wraps a writer with checkpoints.
+     *
+     * @param writer writer to pass results to
+     * @param outputPath path the writer writes to. The checkpoint is written to this path plus EXTENSION
+     * @param format format of the writer's output, e.g. ResultWriter.FORMAT_CSV
+     * @param skip number of frames skipped between results
+     * @param model hash of the detection models producing the results
+     * @param settings anything else the results depend on (e.g. the video and valid labels), by name
+     * @param interval number of results between checkpoints
+     * @param results number of results already in the output, when resuming
+     */
+    public CheckpointWriter(ResultWriter writer, String outputPath, String format, int skip, String model, Map<String, String> settings, int interval, int results) {
+        super(writer.get_detector_keys());
+        this.writer = writer;
+        this.output = new File(outputPath);
+        this.checkpoint = new File(outputPath + EXTENSION);
+        this.format = format;
+        this.skip = skip;
+        this.model = model;
+        this.settings = settings;
+        this.interval = interval;
+        this.results = results;
+    }
+
+
+    public void write(VideoParser.ParserResult result) throws IOException {
+        this.writer.write(result);
+        this.results += 1;
+        this.frame = result.frame();
+        if ((this.results % this.interval) == 0) { this.flush(); }
+    }
+
+
+    /** Flushes the wrapped writer and records a checkpoint. */
+    public void flush() throws IOException {
+        this.writer.flush();
+        if (this.frame < 0) { return; }
+        Properties state = new Properties();
+        state.setProperty(KEY_FRAME, String.valueOf(this.frame));
+        state.setProperty(KEY_RESULTS, String.valueOf(this.results));
+        state.setProperty(KEY_BYTES, String.valueOf(this.output.length()));
+        state.setProperty(KEY_SKIP, String.valueOf(this.skip));
+        state.setProperty(KEY_FORMAT, this.format);
+        state.setProperty(KEY_MODEL, this.model);
+        for (Map.Entry<String, String> setting : this.settings.entrySet()) { state.setProperty(KEY_SETTING + setting.getKey(), setting.getValue()); }
+
+        // write a new file and swap it in so a checkpoint is never half written
+        File temp = new File(this.checkpoint.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) { state.store(out, null); }
+        try { Files.move(temp.toPath(), this.checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE); }
+        catch (AtomicMoveNotSupportedException e) { Files.move(temp.toPath(), this.checkpoint.toPath(), StandardCopyOption.REPLACE_EXISTING); }
+    }
+
+
+    /** Deletes the checkpoint, e.g. once parsing has finished. */
+    public void finish() throws IOException { Files.deleteIfExists(this.checkpoint.toPath()); }
+
+
+    public void close() throws IOException { this.writer.close(); }
+
+
+    /**
+     * Loads the checkpoint for an output file.
+     *
+     * @param outputPath path to the parsing output
+     * @return the checkpoint, or null if there is none
+     * @throws IOException when the checkpoint exists but cant be read
+     */
+    public static Checkpoint load(String outputPath) throws IOException {
+        File file = new File(outputPath + EXTENSION);
+        if (!file.exists() || !(new File(outputPath)).exists()) { return null; }
+        Properties state = new Properties();
+        try (FileInputStream in = new FileInputStream(file)) { state.load(in); }
+        Checkpoint checkpoint = new Checkpoint();
+        try {
+            checkpoint.frame = Integer.parseInt(state.getProperty(KEY_FRAME));
+            checkpoint.results = Integer.parseInt(state.getProperty(KEY_RESULTS));
+            checkpoint.bytes = Long.parseLong(state.getProperty(KEY_BYTES));
+            checkpoint.skip = Integer.parseInt(state.getProperty(KEY_SKIP));
+        }
+        catch (NumberFormatException e) { throw new IOException(String.format("Corrupt checkpoint %s.", file.getPath()), e); }
+        checkpoint.format = state.getProperty(KEY_FORMAT);
+        checkpoint.model = state.getProperty(KEY_MODEL);
+        for (String key : state.stringPropertyNames()) {
+            if (key.startsWith(KEY_SETTING)) { checkpoint.settings.put(key.substring(KEY_SETTING.length()), state.getProperty(key)); }
+        }
+        checkpoint.output = new File(outputPath);
+        return checkpoint;
+    }
+
+
+
+    /** State of a parse at its last checkpoint. */
+    public static class Checkpoint {
+        private int frame;
+        private int results;
+        private long bytes;
+        private int skip;
+        private String format;
+        private String model;
+        private HashMap<String, String> settings = new HashMap<>();
+        private File output;
+
+        /** Whether parsing with these settings can continue from this checkpoint. See <code>CheckpointWriter</code>. */
+        public boolean matches(String format, int skip, String model, Map<String, String> settings) {
+            return format.equals(this.format) && (skip == this.skip) && model.equals(this.model) && this.settings.equals(settings) && (this.output.length() >= this.bytes);
+        }
+
+        /** Cuts the output back to what was written at the checkpoint so it can be appended to. */
+        public void truncate() throws IOException {
+            try (RandomAccessFile file = new RandomAccessFile(this.output, "rw")) { file.setLength(this.bytes); }
+        }
+
+        /** Index of the first frame to parse when resuming, i.e. the sampled frame after the last result. */
+        public int next_frame() { return (Math.max(0, this.frame - 1) / this.skip + 1) * this.skip; }
+
+        public int results() { return this.results; }
+    }
+}
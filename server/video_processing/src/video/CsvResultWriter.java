@@ -0,0 +1,98 @@
+/*
+Copyright 2018 Austin Walker Milt
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package video;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+
+/**
+ * Writes video parsing results to a csv with a frame column, a time column,
+ * and one column of labels per detector.
+ */
+public class CsvResultWriter extends ResultWriter {
+
+    private static options.Options options;
+    static {
+        try { options = new options.Options(); }
+        catch (IOException e) {
+            System.out.println("Couldnt load options file. Failure is imminent.");
+        }
+    }
+    private static final String CSV_FRAMECOL = options.VP.CSV_COL_FRAME();
+    private static final String CSV_TIMECOL = options.VP.CSV_COL_TIME();
+    private static final String CSV_SEPARATOR = options.VP.CSV_SEP_COL();
+
+    private BufferedWriter writer;
+    private DecimalFormat timeFormat = new DecimalFormat("0.000000", DecimalFormatSymbols.getInstance(Locale.ROOT));
+
+
+    /**
+     * Opens a csv for writing and writes the header row.
+     *
+     * @param path path to write results to (overwritten)
+     * @param detectorKeys keys of detectors whose results will be written, in column order
+     * @throws IOException when the output file cant be written to
+     */
+    public CsvResultWriter(String path, String[] detectorKeys) throws IOException { this(path, detectorKeys, false); }
+
+
+    /**
+     * Opens a csv for writing.
+     *
+     * @param path path to write results to
+     * @param detectorKeys keys of detectors whose results will be written, in column order
+     * @param append whether to append to an existing csv (with a header already written) instead of overwriting
+     * @throws IOException when the output file cant be written to
+     */
+    public CsvResultWriter(String path, String[] detectorKeys, boolean append) throws IOException {
+        super(detectorKeys);
+        this.timeFormat.setRoundingMode(RoundingMode.HALF_UP);
+        this.writer = new BufferedWriter(new FileWriter(path, append));
+        if (!append) {
+            this.writer.write(CSV_FRAMECOL);
+            this.writer.write(CSV_SEPARATOR);
+            this.writer.write(CSV_TIMECOL);
+            for (String key : detectorKeys) {
+                this.writer.write(CSV_SEPARATOR);
+                this.writer.write(key);
+            }
+        }
+    }
+
+
+    public void write(VideoParser.ParserResult result) throws IOException {
+        this.writer.write('\n');
+        this.writer.write(Integer.toString(result.frame()));
+        this.writer.write(CSV_SEPARATOR);
+        this.writer.write(this.timeFormat.format(result.time()));
+        for (String key : this.detectorKeys) {
+            this.writer.write(CSV_SEPARATOR);
+            this.writer.write(String.valueOf(result.get(key)));
+        }
+    }
+
+
+    /** Writes any buffered rows to disk. */
+    public void flush() throws IOException { this.writer.flush(); }
+
+
+    public void close() throws IOException { this.writer.close(); }
+}
@@ -0,0 +1,72 @@
+/*
+Copyright 2018 Austin Walker Milt
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package video;
+
+import employment.detectors.Detector;
+import training.ann.networks.Network;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Keeps sets of initialized detectors so parsers can borrow them instead of
+ * loading models for every parse. Each detection object (e.g. neural net) is
+ * loaded once and shared read-only by every set. A set is only used by one
+ * thread at a time.
+ */
+public class DetectorPool {
+
+    private ConcurrentLinkedQueue<Detector[]> idle = new ConcurrentLinkedQueue<>();
+    private HashMap<String, Network> networks = new HashMap<>();
+
+
+    /** Loads the given number of detector sets ahead of time. */
+    public void warm(int sets) throws IOException {
+        for (int s = 0; s < sets; s++) { this.idle.add(make()); }
+    }
+
+
+    /** Borrows an idle set of detectors, loading a new set if none are idle. */
+    public Detector[] take() throws IOException {
+        Detector[] detectors = this.idle.poll();
+        return (detectors == null) ? make() : detectors;
+    }
+
+
+    /** Returns a set of detectors borrowed with <code>take</code>. */
+    public void give(Detector[] detectors) { this.idle.add(detectors); }
+
+
+    /** Makes a new set of detectors, initialized with the shared detection objects. */
+    private Detector[] make() throws IOException {
+        Detector[] detectors = VideoParser.make_detectors();
+        for (Detector detector : detectors) { detector.initialize(this.network(detector)); }
+        return detectors;
+    }
+
+
+    /** Gets the shared detection object of a detector, loading it the first time. */
+    private synchronized Network network(Detector detector) throws IOException {
+        String path = detector.get_network_path().getAbsolutePath();
+        Network network = this.networks.get(path);
+        if (network == null) {
+            network = detector.load_network();
+            this.networks.put(path, network);
+        }
+        return network;
+    }
+}
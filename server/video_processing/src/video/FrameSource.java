@@ -0,0 +1,107 @@
+/*
+Copyright 2018 Austin Walker Milt
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package video;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+/**
+ * Where a VideoParser gets its frames from, e.g. an OpenCV VideoCapture or a
+ * pipe of raw frames from an external decoder.
+ * <p>
+ * Frames are indexed by their position in the video. A source may hand over
+ * only every step-th frame of the video, and only a cropped part of each.
+ */
+public abstract class FrameSource {
+
+    /**
+     * Opens the source at the first frame of the video.
+     *
+     * @return whether the source opened
+     */
+    public abstract boolean open();
+
+
+    /** Checks whether the source is open. */
+    public abstract boolean is_open();
+
+
+    /** Closes the source, releasing anything it holds. */
+    public abstract void close();
+
+
+    /**
+     * Moves to the next frame without converting it.
+     *
+     * @return false at the end of the video
+     */
+    public abstract boolean grab();
+
+
+    /**
+     * Converts the last grabbed frame into the target as 8-bit BGR.
+     *
+     * @return false when there is no grabbed frame
+     */
+    public abstract boolean retrieve(Mat target);
+
+
+    /** Grabs and retrieves the next frame. Returns false at the end of the video. */
+    public boolean read(Mat target) { return this.grab() && this.retrieve(target); }
+
+
+    /** Moves the source so that the next grab returns the frame at the given index. */
+    public abstract void seek(int index);
+
+
+    /** Gets the index one past the last frame grabbed, or the index sought to if nothing has been grabbed since. */
+    public abstract int index();
+
+
+    /** Gets the time of the last frame grabbed, in milliseconds. */
+    public abstract double time();
+
+
+    /** Gets the number of frames in the video. */
+    public abstract int frames();
+
+
+    /** Gets the frame rate of the video. */
+    public abstract double fps();
+
+
+    /** Gets the width of the frames the source hands over. */
+    public abstract int width();
+
+
+    /** Gets the height of the frames the source hands over. */
+    public abstract int height();
+
+
+    /** Gets the number of video frames between consecutive frames of the source. */
+    public int step() { return 1; }
+
+
+    /**
+     * Gets the parts of each video frame the source hands over, stacked top to
+     * bottom in this order and left aligned, or null for the whole frame.
+     */
+    public Rect[] crops() { return null; }
+
+
+    /** Makes a new, closed source over the same video with the same settings. */
+    public abstract FrameSource copy();
+}
@@ -0,0 +1,76 @@
+/*
+Copyright 2018 Austin Walker Milt
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package video;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A video file that may still be being written, e.g. by a download.
+ * <p>
+ * The writer signals that the video is complete by creating an empty file
+ * next to it with the same name plus <code>DONE_EXTENSION</code>. Until then,
+ * readers that reach the end of what has been written wait for the file to
+ * grow, giving up if it stops growing for longer than the timeout.
+ */
+public class GrowingVideo {
+
+    public static final String DONE_EXTENSION = ".done";
+    private static final long POLL_MILLIS = 250;
+
+    private File file;
+    private File marker;
+    private long timeoutMillis;
+    private long size = -1;
+
+
+    /**
+     * @param file video being written
+     * @param timeoutSeconds seconds to wait for the video to grow before giving up
+     */
+    public GrowingVideo(File file, double timeoutSeconds) {
+        this.file = file;
+        this.marker = new File(file.getPath() + DONE_EXTENSION);
+        this.timeoutMillis = (long) (1000 * timeoutSeconds);
+    }
+
+
+    /** Checks whether the writer has finished the video. */
+    public boolean is_complete() { return this.marker.exists(); }
+
+
+    /**
+     * Waits until the video is larger than when this last returned, or the
+     * writer finishes it.
+     *
+     * @throws IOException when the video doesnt grow before the timeout, or when interrupted
+     */
+    public void await_growth() throws IOException {
+        long deadline = System.currentTimeMillis() + this.timeoutMillis;
+        while (true) {
+            long size = this.file.length();
+            if ((size > this.size) || this.is_complete()) {
+                this.size = size;
+                return;
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IOException(String.format("Gave up on %s after it stopped growing for %d seconds.", this.file.getName(), this.timeoutMillis / 1000));
+            }
+            try { Thread.sleep(POLL_MILLIS); }
+            catch (InterruptedException e) { throw new IOException("Interrupted while waiting for video to grow.", e); }
+        }
+    }
+}
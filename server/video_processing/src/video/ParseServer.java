@@ -0,0 +1,313 @@
+/*
+Copyright 2018 Austin Walker Milt
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package video;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps OpenCV and the detection models loaded between parses, taking parse
+ * jobs as JSON lines over stdin or a local socket.
+ * <p>
+ * Each request is a JSON object on one line, e.g.
+ * <p>
+ * {"id": "job1", "video": "/path/to/video.mp4", "output": "/path/to/results.csv", "skip": 1, "labels": "/path/to/labels.csv", "format": "csv"}
+ * <p>
+ * where "skip" is seconds between parsing events ("skip_frames" may be given
+ * instead), and "skip", "labels", and "format" are optional. Each request
+ * gets one response line when its job finishes, e.g.
+ * <p>
+ * {"id": "job1", "status": "ok", "output": "/path/to/results.csv", "seconds": 12.5}
+ * <p>
+ * or {"id": "job1", "status": "error", "error": "..."} when the job fails or
+ * the job queue is full.
+ */
+public class ParseServer {
+
+    public static final String STATUS_OK = "ok";
+    public static final String STATUS_ERROR = "error";
+
+    private DetectorPool detectorPool = new DetectorPool();
+    private ThreadPoolExecutor executor;
+    private double defaultSkip;
+    private String defaultFormat;
+
+
+    /**
+     * Creates a server, loading the detection models and preparing detectors
+     * for each job slot.
+     *
+     * @param jobs number of jobs to run at once
+     * @param queue number of jobs that can wait for a free slot before requests are turned away
+     * @param defaultSkip seconds between parsing events when a request doesnt say
+     * @param defaultFormat results format when a request doesnt say
+     * @throws IOException when the detection models cant be loaded
+     */
+    public ParseServer(int jobs, int queue, double defaultSkip, String defaultFormat) throws IOException {
+        this.executor = new ThreadPoolExecutor(jobs, jobs, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(Math.max(1, queue)));
+        this.defaultSkip = defaultSkip;
+        this.defaultFormat = defaultFormat;
+        this.detectorPool.warm(jobs);
+    }
+
+
+    /**
+     * Serves requests from stdin until it closes, writing responses to stdout.
+     * Anything else the parser prints goes to stderr.
+     */
+    public void serve_stdin() throws IOException, InterruptedException {
+        PrintStream responses = System.out;
+        System.setOut(System.err);
+        this.serve(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)), new PrintWriter(new OutputStreamWriter(responses, StandardCharsets.UTF_8), true));
+        this.executor.shutdown();
+        this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    }
+
+
+    /** Serves requests from local connections on the given port until the process is stopped. */
+    public void serve_socket(int port) throws IOException {
+        ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        System.out.println(String.format("Serving parse jobs on %s:%d.", server.getInetAddress().getHostAddress(), server.getLocalPort()));
+        while (true) {
+            Socket socket = server.accept();
+            Thread connection = new Thread(() -> {
+                try {
+                    this.serve(
+                        new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)),
+                        new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true)
+                    );
+                }
+                catch (IOException e) { System.out.println("Lost connection: " + e.getMessage()); }
+            });
+            connection.setDaemon(true);
+            connection.start();
+        }
+    }
+
+
+    /** Queues a job for each request line until the input ends. */
+    private void serve(BufferedReader requests, PrintWriter responses) throws IOException {
+        String line;
+        while ((line = requests.readLine()) != null) {
+            if (line.trim().isEmpty()) { continue; }
+            HashMap<String, Object> request;
+            try { request = parse_json(line); }
+            catch (IllegalArgumentException e) {
+                respond(responses, error(null, "Bad request: " + e.getMessage()));
+                continue;
+            }
+            try { this.executor.execute(() -> respond(responses, this.run(request))); }
+            catch (RejectedExecutionException e) { respond(responses, error(request.get("id"), "Job queue is full.")); }
+        }
+    }
+
+
+    /** Runs a parse job and makes its response. */
+    private LinkedHashMap<String, Object> run(HashMap<String, Object> request) {
+        Object id = request.get("id");
+        long start = System.nanoTime();
+        VideoParser parser = null;
+        try {
+            String video = get_string(request, "video", null);
+            String output = get_string(request, "output", null);
+            if ((video == null) || (output == null)) { return error(id, "Requests need a video and an output."); }
+            String labels = get_string(request, "labels", null);
+            String format = get_string(request, "format", this.defaultFormat);
+            parser = new VideoParser(video, this.detectorPool);
+            int skip = get_skip(request, parser.get_fps(), this.defaultSkip);
+            HashMap<String, OrderedIntervals> validLabels = (labels == null) ? null : parser.load_valid_labels(labels);
+            ResultWriter writer = ResultWriter.make(format, output, parser.get_detector_keys());
+            try { parser.parse(skip, validLabels, writer); }
+            finally { writer.close(); }
+            parser.get_timings().save(output + ParseTimings.EXTENSION);
+            LinkedHashMap<String, Object> response = new LinkedHashMap<>();
+            response.put("id", id);
+            response.put("status", STATUS_OK);
+            response.put("output", output);
+            response.put("seconds", (System.nanoTime() - start) / 1e9);
+            return response;
+        }
+        catch (Exception e) { return error(id, String.valueOf(e)); }
+        finally { if (parser != null) { parser.release(); } }
+    }
+
+
+    /** Makes an error response. */
+    private static LinkedHashMap<String, Object> error(Object id, String message) {
+        LinkedHashMap<String, Object> response = new LinkedHashMap<>();
+        response.put("id", id);
+        response.put("status", STATUS_ERROR);
+        response.put("error", message);
+        return response;
+    }
+
+
+    /** Writes a response as one line. */
+    private static void respond(PrintWriter responses, Map<String, Object> response) {
+        synchronized (responses) { responses.println(to_json(response)); }
+    }
+
+
+    /** Gets the frames between parsing events of a request, from its "skip_frames" or "skip" (seconds). */
+    static int get_skip(HashMap<String, Object> request, int fps, double defaultSkip) {
+        int skip;
+        if (request.get("skip_frames") instanceof Number) { skip = ((Number) request.get("skip_frames")).intValue(); }
+        else if (request.get("skip") instanceof Number) { skip = (int) Math.round(fps * ((Number) request.get("skip")).doubleValue()); }
+        else { skip = (int) Math.round(fps * defaultSkip); }
+        return Math.max(1, skip);
+    }
+
+
+    /** Gets a string value from a request, or the default if it is missing or null. */
+    static String get_string(HashMap<String, Object> request, String key, String defaultValue) {
+        Object value = request.get(key);
+        return (value == null) ? defaultValue : String.valueOf(value);
+    }
+
+
+
+    ///////////////////////////////////////////////////////////////////////////
+    // JSON ///////////////////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Parses a flat JSON object whose values are strings, numbers, booleans,
+     * or null.
+     *
+     * @param json JSON text
+     * @return map of keys to String, Double, Boolean, or null values
+     * @throws IllegalArgumentException when the text isnt a flat JSON object
+     */
+    static HashMap<String, Object> parse_json(String json) {
+        HashMap<String, Object> output = new HashMap<>();
+        int[] i = new int[]{skip_space(json, 0)};
+        expect(json, i, '{');
+        if (peek(json, i) == '}') { i[0] += 1; }
+        else {
+            while (true) {
+                String key = read_string(json, i);
+                expect(json, i, ':');
+                output.put(key, read_value(json, i));
+                if (peek(json, i) == ',') { i[0] += 1; continue; }
+                expect(json, i, '}');
+                break;
+            }
+        }
+        if (skip_space(json, i[0]) != json.length()) { throw new IllegalArgumentException("Unexpected text after object."); }
+        return output;
+    }
+
+
+    private static int skip_space(String json, int i) {
+        while ((i < json.length()) && Character.isWhitespace(json.charAt(i))) { i += 1; }
+        return i;
+    }
+
+
+    private static char peek(String json, int[] i) {
+        i[0] = skip_space(json, i[0]);
+        if (i[0] >= json.length()) { throw new IllegalArgumentException("Unexpected end of object."); }
+        return json.charAt(i[0]);
+    }
+
+
+    private static void expect(String json, int[] i, char c) {
+        if (peek(json, i) != c) { throw new IllegalArgumentException(String.format("Expected '%s' at %d.", c, i[0])); }
+        i[0] += 1;
+    }
+
+
+    private static String read_string(String json, int[] i) {
+        expect(json, i, '"');
+        StringBuilder string = new StringBuilder();
+        char c;
+        while (true) {
+            if (i[0] >= json.length()) { throw new IllegalArgumentException("Unterminated string."); }
+            c = json.charAt(i[0]++);
+            if (c == '"') { return string.toString(); }
+            if (c != '\\') { string.append(c); continue; }
+            if (i[0] >= json.length()) { throw new IllegalArgumentException("Unterminated string."); }
+            c = json.charAt(i[0]++);
+            switch (c) {
+                case 'n': string.append('\n'); break;
+                case 't': string.append('\t'); break;
+                case 'r': string.append('\r'); break;
+                case 'b': string.append('\b'); break;
+                case 'f': string.append('\f'); break;
+                case 'u':
+                    if (i[0] + 4 > json.length()) { throw new IllegalArgumentException("Bad unicode escape."); }
+                    string.append((char) Integer.parseInt(json.substring(i[0], i[0] + 4), 16));
+                    i[0] += 4;
+                    break;
+                default: string.append(c);
+            }
+        }
+    }
+
+
+    private static Object read_value(String json, int[] i) {
+        char c = peek(json, i);
+        if (c == '"') { return read_string(json, i); }
+        for (String literal : new String[]{"true", "false", "null"}) {
+            if (json.startsWith(literal, i[0])) {
+                i[0] += literal.length();
+                return literal.equals("null") ? null : Boolean.valueOf(literal);
+            }
+        }
+        int start = i[0];
+        while ((i[0] < json.length()) && ("+-.eE".indexOf(json.charAt(i[0])) >= 0 || Character.isDigit(json.charAt(i[0])))) { i[0] += 1; }
+        try { return Double.valueOf(json.substring(start, i[0])); }
+        catch (NumberFormatException e) { throw new IllegalArgumentException(String.format("Bad value at %d.", start)); }
+    }
+
+
+    /** Writes a flat map of strings, numbers, booleans, and nulls as a JSON object. */
+    static String to_json(Map<String, Object> values) {
+        StringBuilder json = new StringBuilder("{");
+        String separator = "";
+        for (Map.Entry<String, Object> entry : values.entrySet()) {
+            json.append(separator);
+            append_string(json, entry.getKey());
+            json.append(": ");
+            Object value = entry.getValue();
+            if ((value == null) || (value instanceof Number) || (value instanceof Boolean)) { json.append(value); }
+            else { append_string(json, value.toString()); }
+            separator = ", ";
+        }
+        return json.append("}").toString();
+    }
+
+
+    private static void append_string(StringBuilder json, String string) {
+        json.append('"');
+        for (char c : string.toCharArray()) {
+            if ((c == '"') || (c == '\\')) { json.append('\\').append(c); }
+            else if (c < 0x20) { json.append(String.format("\\u%04x", (int) c)); }
+            else { json.append(c); }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,216 @@
+/*
+Copyright 2018 Austin Walker Milt
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package video;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects how long each stage of a parse takes (e.g. decoding, copying
+ * detection regions, and each detector). Stages can be recorded from any
+ * number of threads at once.
+ */
+public class ParseTimings {
+
+    public static final String STAGE_DECODE = "decode";
+    public static final String STAGE_ROI = "roi";
+    public static final String STAGE_DETECT = "detect:";
+    public static final String EXTENSION = ".timing.json";
+
+    private ConcurrentHashMap<String, Stage> stages = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private AtomicLong detections = new AtomicLong();
+    private AtomicLong reusedDetections = new AtomicLong();
+    private long start = System.nanoTime();
+    private long stop = -1;
+
+
+    /** Clears all stages and starts timing a new run. */
+    public void reset() {
+        this.stages.clear();
+        this.counters.clear();
+        this.detections.set(0);
+        this.reusedDetections.set(0);
+        this.start = System.nanoTime();
+        this.stop = -1;
+    }
+
+
+    /** Stops timing the run, e.g. once parsing finishes. */
+    public void finish() { this.stop = System.nanoTime(); }
+
+
+    /** Records one occurrence of a stage that took the given number of nanoseconds. */
+    public void record(String stage, long nanos) {
+        Stage s = this.stages.get(stage);
+        if (s == null) { s = this.stages.computeIfAbsent(stage, k -> new Stage()); }
+        s.record(nanos);
+    }
+
+
+    /** Records detection of one region, and whether its label was reused rather than detected. */
+    public void count_detection(boolean reused) {
+        this.detections.incrementAndGet();
+        if (reused) { this.reusedDetections.incrementAndGet(); }
+    }
+
+
+    /** Adds to a named count, e.g. of a detector's cache hits. */
+    public void add_count(String counter, long n) {
+        LongAdder c = this.counters.get(counter);
+        if (c == null) { c = this.counters.computeIfAbsent(counter, k -> new LongAdder()); }
+        c.add(n);
+    }
+
+
+    /** Gets a named count from <code>add_count</code>. */
+    public long get_count(String counter) {
+        LongAdder c = this.counters.get(counter);
+        return (c == null) ? 0 : c.sum();
+    }
+
+
+    /** Gets the number of regions detected. */
+    public long detections() { return this.detections.get(); }
+
+
+    /** Gets the number of regions whose label was reused rather than detected. */
+    public long reused_detections() { return this.reusedDetections.get(); }
+
+
+    /** Gets the number of times the stage was recorded. */
+    public long count(String stage) {
+        Stage s = this.stages.get(stage);
+        return (s == null) ? 0 : s.count.sum();
+    }
+
+
+    /** Gets the total nanoseconds recorded for the stage. */
+    public long total(String stage) {
+        Stage s = this.stages.get(stage);
+        return (s == null) ? 0 : s.total.sum();
+    }
+
+
+    /**
+     * Writes a summary of the run as JSON, e.g.
+     * <p>
+     * {"wall_ns": 1200, "detections": 40, "reused_detections": 10, "stages": {"decode": {"count": 20, "total_ns": 800, "mean_ns": 40, "p50_ns": 38, "p90_ns": 52, "p99_ns": 60, "max_ns": 61}, ...}, "counters": {"clock:glyph_cache_hits": 70, ...}}
+     * <p>
+     * Percentiles are accurate to within about 6%.
+     *
+     * @param path path to write to (overwritten)
+     * @throws IOException when the file cant be written to
+     */
+    public void save(String path) throws IOException {
+        long wall = ((this.stop < 0) ? System.nanoTime() : this.stop) - this.start;
+        BufferedWriter writer = new BufferedWriter(new FileWriter(path));
+        try {
+            writer.write(String.format("{\"wall_ns\": %d, \"detections\": %d, \"reused_detections\": %d, \"stages\": {", wall, this.detections.get(), this.reusedDetections.get()));
+            String separator = "";
+            for (Map.Entry<String, Stage> entry : new ConcurrentSkipListMap<>(this.stages).entrySet()) {
+                Stage s = entry.getValue();
+                long count = s.count.sum();
+                long total = s.total.sum();
+                writer.write(String.format(
+                    "%s\n  \"%s\": {\"count\": %d, \"total_ns\": %d, \"mean_ns\": %d, \"p50_ns\": %d, \"p90_ns\": %d, \"p99_ns\": %d, \"max_ns\": %d}",
+                    separator, escape(entry.getKey()), count, total, (count == 0) ? 0 : total / count,
+                    s.percentile(0.5), s.percentile(0.9), s.percentile(0.99), s.max.get()
+                ));
+                separator = ",";
+            }
+            writer.write("\n}, \"counters\": {");
+            separator = "";
+            for (Map.Entry<String, LongAdder> entry : new ConcurrentSkipListMap<>(this.counters).entrySet()) {
+                writer.write(String.format("%s\"%s\": %d", separator, escape(entry.getKey()), entry.getValue().sum()));
+                separator = ", ";
+            }
+            writer.write("}}\n");
+        }
+        finally { writer.close(); }
+    }
+
+
+    /** Escapes a string for use inside JSON quotes. */
+    private static String escape(String string) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : string.toCharArray()) {
+            if ((c == '"') || (c == '\\')) { escaped.append('\\').append(c); }
+            else if (c < 0x20) { escaped.append(String.format("\\u%04x", (int) c)); }
+            else { escaped.append(c); }
+        }
+        return escaped.toString();
+    }
+
+
+
+    /**
+     * Count, total, and a log-linear histogram of one stage's times. Each
+     * power of two is split into SUB_BUCKETS linear buckets, so recording is a
+     * few bit operations and one atomic increment.
+     */
+    private static class Stage {
+        private static final int SUB_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BITS;
+        private LongAdder count = new LongAdder();
+        private LongAdder total = new LongAdder();
+        private AtomicLong max = new AtomicLong();
+        private AtomicLongArray buckets = new AtomicLongArray((64 - SUB_BITS + 1) * SUB_BUCKETS);
+
+        private void record(long nanos) {
+            if (nanos < 0) { nanos = 0; }
+            this.count.increment();
+            this.total.add(nanos);
+            this.max.accumulateAndGet(nanos, Math::max);
+            this.buckets.incrementAndGet(bucket(nanos));
+        }
+
+        /** Gets the histogram bucket of a value. */
+        private static int bucket(long value) {
+            if (value < SUB_BUCKETS) { return (int) value; }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+        }
+
+        /** Gets the middle of the values that fall in a histogram bucket. */
+        private static long bucket_value(int bucket) {
+            if (bucket < SUB_BUCKETS) { return bucket; }
+            int shift = bucket / SUB_BUCKETS - 1;
+            long lower = ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS)) << shift;
+            return lower + (1L << shift) / 2;
+        }
+
+        /** Gets the approximate value below which the given fraction of recorded times fall. */
+        private long percentile(double fraction) {
+            long n = this.count.sum();
+            if (n == 0) { return 0; }
+            long rank = Math.max(1, (long) Math.ceil(fraction * n));
+            long seen = 0;
+            for (int b = 0; b < this.buckets.length(); b++) {
+                seen += this.buckets.get(b);
+                if (seen >= rank) { return Math.min(bucket_value(b), this.max.get()); }
+            }
+            return this.max.get();
+        }
+    }
+}
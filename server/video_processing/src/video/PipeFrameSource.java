@@ -0,0 +1,222 @@
+/*
+Copyright 2018 Austin Walker Milt
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package video;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+
+/**
+ * Reads fixed-size raw BGR frames from the output pipe of a local ffmpeg.
+ * <p>
+ * ffmpeg keeps every step-th decoded frame (with its select filter), crops
+ * out each of the given regions and stacks them top to bottom, left
+ * aligned, before writing it, so only the pixels detectors look at cross the
+ * pipe. Seeking backward, or far forward, restarts ffmpeg at the target
+ * time.
+ * <p>
+ * The k-th frame of the pipe after starting at frame s is the (k*step)-th
+ * frame ffmpeg decodes from s, so indices match reading every frame with
+ * OpenCV. Only where a restart lands is by time, which can be off by a frame
+ * when frame timestamps are uneven.
+ */
+public class PipeFrameSource extends FrameSource {
+
+    private static final double RESTART_SECONDS = 10;
+    private static final int PIPE_BUFFER = 1 << 16;
+
+    private String ffmpeg;
+    private File file;
+    private double fps;
+    private int frames;
+    private int step;
+    private Rect[] crops;
+    private int width = 1;
+    private int height = 0;
+    private byte[] buffer;
+    private Process process = null;
+    private InputStream pipe = null;
+    private int next = 0;
+    private int last = -1;
+    private int index = 0;
+
+
+    /**
+     * @param ffmpeg path to the ffmpeg executable
+     * @param file video to read
+     * @param fps frame rate of the video
+     * @param frames number of frames in the video
+     * @param step number of video frames between frames of the pipe
+     * @param crops parts of each frame to hand over, stacked in this order
+     */
+    public PipeFrameSource(String ffmpeg, File file, double fps, int frames, int step, Rect[] crops) {
+        this.ffmpeg = ffmpeg;
+        this.file = file;
+        this.fps = fps;
+        this.frames = frames;
+        this.step = Math.max(1, step);
+        this.crops = crops;
+        for (Rect crop : crops) {
+            this.width = Math.max(this.width, crop.width);
+            this.height += crop.height;
+        }
+        this.height = Math.max(1, this.height);
+        this.buffer = new byte[3 * this.width * this.height];
+    }
+
+
+    /**
+     * Makes the filter graph that keeps every step-th frame, then crops each
+     * region, pads it to the widest and stacks them.
+     */
+    private String make_filter() {
+        StringBuilder filter = new StringBuilder(String.format("select='not(mod(n\\,%d))'", this.step));
+        int n = this.crops.length;
+        if (n == 0) { return filter.append(String.format(",crop=%d:%d:0:0", this.width, this.height)).toString(); }
+        if (n > 1) {
+            filter.append(",split=").append(n);
+            for (int i = 0; i < n; i++) { filter.append(String.format("[s%d]", i)); }
+            filter.append(";");
+        }
+        for (int i = 0; i < n; i++) {
+            Rect crop = this.crops[i];
+            if (n > 1) { filter.append(String.format("[s%d]", i)); }
+            else { filter.append(","); }
+            filter.append(String.format("crop=%d:%d:%d:%d,pad=%d:%d:0:0", crop.width, crop.height, crop.x, crop.y, this.width, crop.height));
+            if (n > 1) { filter.append(String.format("[c%d];", i)); }
+        }
+        if (n > 1) {
+            for (int i = 0; i < n; i++) { filter.append(String.format("[c%d]", i)); }
+            filter.append("vstack=inputs=").append(n);
+        }
+        return filter.toString();
+    }
+
+
+    /** Starts ffmpeg so that the first frame of the pipe is the frame at the given index. */
+    private boolean start(int index) {
+        this.close();
+        ArrayList<String> command = new ArrayList<>();
+        command.add(this.ffmpeg);
+        command.add("-nostdin");
+        command.add("-v");
+        command.add("error");
+        if (index > 0) {
+            command.add("-ss");
+            command.add(Double.toString(index / this.fps));
+        }
+        command.add("-i");
+        command.add(this.file.getAbsolutePath());
+        command.add("-an");
+        command.add("-sn");
+        command.add("-filter_complex");
+        command.add(this.make_filter());
+        command.add("-vsync");
+        command.add("0");
+        command.add("-f");
+        command.add("rawvideo");
+        command.add("-pix_fmt");
+        command.add("bgr24");
+        command.add("-");
+        try {
+            this.process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+            this.process.getOutputStream().close();
+        }
+        catch (IOException e) {
+            this.process = null;
+            return false;
+        }
+        this.pipe = new BufferedInputStream(this.process.getInputStream(), PIPE_BUFFER);
+        this.next = index;
+        this.last = -1;
+        this.index = index;
+        return true;
+    }
+
+
+    public boolean open() { return this.start(0); }
+
+    public boolean is_open() { return this.process != null; }
+
+    public void close() {
+        if (this.process == null) { return; }
+        try { this.pipe.close(); }
+        catch (IOException ignored) {}
+        this.process.destroy();
+        this.process = null;
+        this.pipe = null;
+    }
+
+    public boolean grab() {
+        if (this.pipe == null) { return false; }
+        try {
+            int read = 0;
+            int n;
+            while (read < this.buffer.length) {
+                n = this.pipe.read(this.buffer, read, this.buffer.length - read);
+                if (n < 0) { return false; }
+                read += n;
+            }
+        }
+        catch (IOException e) { return false; }
+        this.last = this.next;
+        this.index = this.last + 1;
+        this.next += this.step;
+        return true;
+    }
+
+    public boolean retrieve(Mat target) {
+        if (this.last < 0) { return false; }
+        target.create(this.height, this.width, CvType.CV_8UC3);
+        target.put(0, 0, this.buffer);
+        return true;
+    }
+
+    /** Reads through the pipe to nearby frames ahead, and restarts ffmpeg for any others. */
+    public void seek(int index) {
+        if (!this.is_open() || (index < this.next) || (index - this.next > RESTART_SECONDS * this.fps)) {
+            this.start(index);
+            return;
+        }
+        while ((this.next < index) && this.grab()) {}
+        this.last = -1;
+        this.index = index;
+    }
+
+    public int index() { return this.index; }
+
+    public double time() { return 1000d * Math.max(0, this.last) / this.fps; }
+
+    public int frames() { return this.frames; }
+
+    public double fps() { return this.fps; }
+
+    public int width() { return this.width; }
+
+    public int height() { return this.height; }
+
+    public int step() { return this.step; }
+
+    public Rect[] crops() { return this.crops; }
+
+    public FrameSource copy() { return new PipeFrameSource(this.ffmpeg, this.file, this.fps, this.frames, this.step, this.crops); }
+}
@@ -0,0 +1,121 @@
+/*
+Copyright 2018 Austin Walker Milt
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+package video;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Writes the results of video parsing as they are produced, so results never
+ * have to be held in memory all at once.
+ */
+public abstract class ResultWriter implements Closeable {
+
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_BINARY = "binary";
+
+    protected String[] detectorKeys;
+
+
+    /**
+     * Creates a writer for results of the given detectors.
+     *
+     * @param detectorKeys keys of detectors whose results will be written, in column order
+     */
+    public ResultWriter(String[] detectorKeys) { this.detectorKeys = detectorKeys; }
+
+
+    /**
+     * Makes a new writer in the given format.
+     *
+     * @param format one of FORMAT_CSV or FORMAT_BINARY
+     * @param path path to write results to (overwritten)
+     * @param detectorKeys keys of detectors whose results will be written
+     * @return new writer
+     * @throws IOException when the output file cant be opened
+     */
+    public static ResultWriter make(String format, String path, String[] detectorKeys) throws IOException {
+        return make(format, path, detectorKeys, false);
+    }
+
+
+    /**
+     * Makes a new writer in the given format.
+     *
+     * @param format one of FORMAT_CSV or FORMAT_BINARY
+     * @param path path to write results to
+     * @param detectorKeys keys of detectors whose results will be written
+     * @param append whether to append to existing results in the same format instead of overwriting
+     * @return new writer
+     * @throws IOException when the output file cant be opened
+     */
+    public static ResultWriter make(String format, String path, String[] detectorKeys, boolean append) throws IOException {
+        if (format.equals(FORMAT_CSV)) { return new CsvResultWriter(path, detectorKeys, append); }
+        else if (format.equals(FORMAT_BINARY)) { return new BinaryResultWriter(path, detectorKeys, append); }
+        else { throw new IllegalArgumentException(String.format("Unknown results format %s", format)); }
+    }
+
+
+    /** Writes the result of detection on a single frame. Results must be written in frame order. */
+    public abstract void write(VideoParser.ParserResult result) throws IOException;
+
+
+    /** Writes any buffered results to their destination. */
+    public void flush() throws IOException {}
+
+
+    /** Gets the keys of detectors whose results are written. */
+    public String[] get_detector_keys() { return this.detectorKeys; }
+
+
+
+    /** Writer that keeps results in memory, e.g. for callers that want a list of results. */
+    public static class Collector extends ResultWriter {
+        private ArrayList<VideoParser.ParserResult> results = new ArrayList<>();
+        public Collector(String[] detectorKeys) { super(detectorKeys); }
+        public void write(VideoParser.ParserResult result) { this.results.add(result); }
+        public void close() {}
+        public ArrayList<VideoParser.ParserResult> results() { return this.results; }
+    }
+
+
+
+    /**
+     * Writer that fills in the labels of detectors missing from a result
+     * (e.g. detectors that only run every few seconds) with the last label
+     * written for them, then passes the result on to another writer. Doesnt
+     * close the writer it passes results to.
+     */
+    public static class CarryForward extends ResultWriter {
+        private ResultWriter writer;
+        private String[] labels;
+        public CarryForward(ResultWriter writer) {
+            super(writer.get_detector_keys());
+            this.writer = writer;
+            this.labels = new String[this.detectorKeys.length];
+        }
+        public void write(VideoParser.ParserResult result) throws IOException {
+            for (int i = 0; i < this.detectorKeys.length; i++) {
+                if (result.results().containsKey(this.detectorKeys[i])) { this.labels[i] = result.get(this.detectorKeys[i]); }
+                else { result.put(this.detectorKeys[i], this.labels[i]); }
+            }
+            this.writer.write(result);
+        }
+        public void flush() throws IOException { this.writer.flush(); }
+        public void close() {}
+    }
+}
@@ -26,7 +26,6 @@ import org.opencv.core.Mat;
 import org.opencv.core.MatOfByte;
 import org.opencv.core.Rect;
 import org.opencv.imgcodecs.Imgcodecs;
-import org.opencv.videoio.VideoCapture;
 import training.trainers.ClockTrainerDigitANN;
 import training.trainers.NameTrainerAvgImg;
 import training.trainers.Trainer;
@@ -37,10 +36,13 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.*;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 import java.util.List;
-
-import static org.opencv.videoio.Videoio.*;
+import java.util.concurrent.*;
+import java.util.function.ObjLongConsumer;
 
 /**
  * This class handles video parsing for creating training images for detectors
@@ -52,9 +54,10 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
 //    static{ System.loadLibrary(Core.NATIVE_LIBRARY_NAME); }
 
     private File file;
-    private VideoCapture video;
+    private FrameSource source;
     private int frames;
     private int fps;
+    private double rate;
     private int height;
     private int width;
     private Rect[] regions;
@@ -67,8 +70,19 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
     private static final String TASK_PARSE_INT = "parse_interactively";
     private static final String TASK_PARSE_FILE = "parse_by_file";
     private static final String TASK_PARSE_AUTO = "parse_automatically";
+    private static final String TASK_SERVE = "serve";
+    private static final String TASK_BATCH = "batch";
     private static final String DEFAULT_VIDEO_TASK = "play";
 
+    // counts of labels carried forward between detections and of detections
+    // brought forward by a jump in the clock
+    public static final String COUNT_CARRIED = "parser:carried_labels";
+    public static final String COUNT_RECHECKS = "parser:clock_jump_rechecks";
+
+    // frame sampling modes
+    public static final String SAMPLING_SEEK = "seek";
+    public static final String SAMPLING_SEQUENTIAL = "sequential";
+
     // module options
     private static options.Options options;
     static {
@@ -96,10 +110,77 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
     private static final String CSV_SEPARATOR = options.VP.CSV_SEP_COL();
     private static final String CSV_INTERVAL_SEPARATOR = options.VP.CSV_SEP_INTERVAL();
     private static final String CSV_LABEL_SEPARATOR = options.VP.CSV_SEP_LABEL();
-
-    // build the detectors and trainers
-    private Detector[] detectors = make_detectors();
+    private static final String DEFAULT_SAMPLING = options.VP.SAMPLING();
+    private static final int DEFAULT_KEYFRAME_INTERVAL = options.VP.KEYFRAME_INTERVAL();
+    private static final int DEFAULT_WORKERS = options.VP.PARSE_WORKERS();
+    private static final int DEFAULT_PIPELINE_THREADS = options.VP.PIPELINE_THREADS();
+    private static final int DEFAULT_PIPELINE_QUEUE = options.VP.PIPELINE_QUEUE();
+    private static final int DEFAULT_ADAPTIVE_STRIDE = options.VP.ADAPTIVE_STRIDE();
+    private static final double DEFAULT_ADAPTIVE_TOLERANCE = options.VP.ADAPTIVE_TOLERANCE();
+    private static final String DEFAULT_OUTPUT_FORMAT = options.VP.OUTPUT_FORMAT();
+    private static final int CHECKPOINT_INTERVAL = options.VP.CHECKPOINT_INTERVAL();
+    private static final boolean DEFAULT_REUSE_UNCHANGED = options.VP.REUSE_UNCHANGED();
+    private static final int SERVER_JOBS = options.VP.SERVER_JOBS();
+    private static final int SERVER_QUEUE = options.VP.SERVER_QUEUE();
+    private static final int BATCH_THREADS = options.VP.BATCH_THREADS();
+    private static final double BATCH_CHUNK_SECONDS = options.VP.BATCH_CHUNK_SECONDS();
+    private static final double GROWING_TIMEOUT = options.VP.GROWING_TIMEOUT();
+    private static final String FFMPEG = options.VP.FFMPEG();
+    private static final String CLOCK_SEPARATOR = ":";
+    private static final int SEEK_PROBES = 5;
+    private static final int SEEK_PROBE_GRABS = 30;
+
+    // how frame iterators move between sampled frames
+    private String sampling = DEFAULT_SAMPLING;
+    private int keyframeInterval = DEFAULT_KEYFRAME_INTERVAL;
+
+    // number of threads to parse video segments with
+    private int workers = worker_count(DEFAULT_WORKERS);
+
+    // number of detection threads fed by a single decoding thread (0 to
+    // decode and detect on the same thread) and how many decoded frames can
+    // wait for detection
+    private int pipelineThreads = DEFAULT_PIPELINE_THREADS;
+    private int pipelineQueue = DEFAULT_PIPELINE_QUEUE;
+
+    // clock-guided adaptive sampling. When the stride is more than 1, only
+    // every stride-th sampled frame is decoded unless the game clock falls
+    // out of step with the video
+    private int adaptiveStride = DEFAULT_ADAPTIVE_STRIDE;
+    private double adaptiveTolerance = DEFAULT_ADAPTIVE_TOLERANCE;
+
+    // when a detection region is identical to the last one seen by the same
+    // detector, reuse its label instead of detecting again
+    private boolean reuseUnchanged = DEFAULT_REUSE_UNCHANGED;
+    private RegionMemo memo = new RegionMemo();
+
+    // number of sampled frames between detections by each detector (null
+    // when every detector runs on every sampled frame), from their sample
+    // intervals, and which detector reads the clock. Labels are carried
+    // forward between detections when results are written
+    private int[] strides = null;
+    private int strideSkip = 1;
+    private int clock = -1;
+
+    // time spent in each stage of the last parse, shared with segment workers
+    private ParseTimings timings = new ParseTimings();
+    private ObjLongConsumer<String> counts = this.timings::add_count;
+
+    // build the trainers. Detectors are made (or borrowed) by the constructors
+    private Detector[] detectors;
     private Trainer[] trainers = make_trainers();
+    private String[] detectStages;
+
+    // where detectors are borrowed from, if anywhere
+    private DetectorPool detectorPool = null;
+
+    // when the video is still being written (e.g. downloaded), what tells
+    // parsing to wait for more of it
+    private GrowingVideo growing = null;
+
+    // when set, parsing reads frames from this ffmpeg, which samples and crops
+    // them before they reach the parser
+    private String ffmpeg = null;
 
 
 
@@ -108,7 +189,9 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
     ///////////////////////////////////////////////////////////////////////////
 
     /** Creates an empty parser. */
-    public VideoParser() throws IOException {}
+    public VideoParser() throws IOException {
+        this.init_detectors(null);
+    }
 
 
     /**
@@ -118,30 +201,148 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
      * @throws IOException
      */
     public VideoParser(String videoPath) throws IOException {
+        this.init_detectors(null);
+        this.file = new File(videoPath);
+        this.source = new CaptureFrameSource(this.file);
+        this.update_stats();
+    }
+
+
+    /**
+     * Creates a new video.VideoParser that borrows its detectors (and those of
+     * any segment workers or detection threads) from a pool. Call
+     * <code>release</code> when done with the parser.
+     *
+     * @param videoPath path to video to parse
+     * @param detectorPool pool of initialized detectors
+     * @throws IOException
+     */
+    public VideoParser(String videoPath, DetectorPool detectorPool) throws IOException {
+        this.init_detectors(detectorPool);
         this.file = new File(videoPath);
-        this.video = new VideoCapture();
+        this.source = new CaptureFrameSource(this.file);
         this.update_stats();
     }
 
 
+    /**
+     * Creates a new video.VideoParser to parse a video that is still being
+     * written. Waits until enough of the video is written to open it. Parsing
+     * reads what has been written so far and waits for the rest.
+     *
+     * @param videoPath path to video to parse
+     * @param growing tells when the video is complete
+     * @throws IOException when the video cant be opened before it is complete or stops growing
+     */
+    public VideoParser(String videoPath, GrowingVideo growing) throws IOException {
+        this.init_detectors(null);
+        this.file = new File(videoPath);
+        this.source = new CaptureFrameSource(this.file);
+        this.growing = growing;
+        while (true) {
+            boolean complete = growing.is_complete();
+            if (this.file.exists()) {
+                try {
+                    this.update_stats();
+                    if (this.fps > 0) { return; }
+                }
+                catch (RuntimeException e) {}
+            }
+            if (complete) { throw new IOException("Unable to open video " + videoPath); }
+            growing.await_growth();
+        }
+    }
+
+
+    /**
+     * Creates a new video.VideoParser over the same video as another parser,
+     * with its own video handle and detectors (e.g. for parsing a segment of
+     * the video on a separate thread).
+     *
+     * @param parent parser to copy video stats and sampling settings from
+     * @throws IOException
+     */
+    VideoParser(VideoParser parent) throws IOException {
+        this.init_detectors(parent.detectorPool);
+        this.file = parent.file;
+        this.source = parent.source.copy();
+        this.frames = parent.frames;
+        this.fps = parent.fps;
+        this.rate = parent.rate;
+        this.height = parent.height;
+        this.width = parent.width;
+        this.regions = make_regions();
+        this.sampling = parent.sampling;
+        this.keyframeInterval = parent.keyframeInterval;
+        this.pipelineThreads = parent.pipelineThreads;
+        this.pipelineQueue = parent.pipelineQueue;
+        this.adaptiveStride = parent.adaptiveStride;
+        this.adaptiveTolerance = parent.adaptiveTolerance;
+        this.reuseUnchanged = parent.reuseUnchanged;
+        this.ffmpeg = parent.ffmpeg;
+        this.timings = parent.timings;
+        this.counts = parent.counts;
+    }
+
+
 
     ///////////////////////////////////////////////////////////////////////////
     // CONSTRUCTOR HELPERS ////////////////////////////////////////////////////
     ///////////////////////////////////////////////////////////////////////////
 
+    /** Borrows detectors from a pool, or makes them when there is no pool. */
+    private void init_detectors(DetectorPool detectorPool) throws IOException {
+        this.detectorPool = detectorPool;
+        this.detectors = (detectorPool == null) ? make_detectors() : detectorPool.take();
+        this.detectStages = make_detect_stages();
+    }
+
     /** Updates stats for the parser based on the video attributes. */
     private void update_stats() throws FileNotFoundException {
         this.open();
-        this.frames = (int) this.video.get(CV_CAP_PROP_FRAME_COUNT);
-        this.fps = (int) this.video.get(CV_CAP_PROP_FPS);
-        this.height = (int) this.video.get(CV_CAP_PROP_FRAME_HEIGHT);
-        this.width = (int) this.video.get(CV_CAP_PROP_FRAME_WIDTH);
+        this.frames = this.source.frames();
+        this.rate = this.source.fps();
+        this.fps = (int) this.rate;
+        this.height = this.source.height();
+        this.width = this.source.width();
         this.regions = make_regions();
         this.close();
     }
 
-    /** Makes subframe regions to inspect in the current video based on assigned detectors. */
+    /**
+     * Makes subframe regions to inspect in the current video based on assigned
+     * detectors, relative to the part of each frame the source hands over.
+     */
     private Rect[] make_regions() {
+        Rect[] regions = make_video_regions();
+        Rect[] crops = this.source.crops();
+        if (crops != null) {
+            int top = 0;
+            for (int i = 0; i < regions.length; i++) {
+                regions[i].x -= crops[i].x;
+                regions[i].y += top - crops[i].y;
+                top += crops[i].height;
+            }
+        }
+        return regions;
+    }
+
+    /** Gets each detector's region, clipped to the video frame, e.g. to crop frames to. */
+    private Rect[] region_crops() {
+        Rect[] regions = make_video_regions();
+        Rect[] crops = new Rect[regions.length];
+        for (int i = 0; i < regions.length; i++) {
+            int left = Math.min(Math.max(0, regions[i].x), this.width - 1);
+            int top = Math.min(Math.max(0, regions[i].y), this.height - 1);
+            int right = Math.min(this.width, regions[i].x + regions[i].width);
+            int bottom = Math.min(this.height, regions[i].y + regions[i].height);
+            crops[i] = new Rect(left, top, Math.max(1, right - left), Math.max(1, bottom - top));
+        }
+        return crops;
+    }
+
+    /** Makes subframe regions to inspect within full video frames. */
+    private Rect[] make_video_regions() {
         double[] roi;
         int left;
         int top;
@@ -160,7 +361,7 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
     }
 
     /** Makes the detectors. */
-    private Detector[] make_detectors() throws IOException {
+    static Detector[] make_detectors() throws IOException {
         String[] names = options.VP.DETECTORS();
         Detector[] output = new Detector[names.length];
         for (int i = 0; i < names.length; i++) {
@@ -193,32 +394,210 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
     }
 
 
+    /**
+     * Hashes the keys and trained detection objects of this parser's
+     * detectors, e.g. to check that results came from the same models.
+     *
+     * @return hex SHA-256 digest
+     * @throws IOException when a detection object cant be read
+     */
+    public String get_model_hash() throws IOException {
+        MessageDigest digest;
+        try { digest = MessageDigest.getInstance("SHA-256"); }
+        catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+        for (Detector detector : this.detectors) {
+            digest.update(detector.get_key().getBytes("UTF-8"));
+            digest.update(Files.readAllBytes(detector.get_network_path().toPath()));
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) { hex.append(String.format("%02x", b)); }
+        return hex.toString();
+    }
+
+
+    /**
+     * Gets the settings a parse's results depend on besides the skip, format,
+     * and models: the video (its size and frames too, unless it is still
+     * growing), the valid labels, and options that change labels. E.g. to
+     * check that a checkpoint came from the same parse.
+     *
+     * @param skip number of frames between sampled frames
+     * @param validLabelsPath path to the valid labels file, or null if there is none
+     * @return settings by name
+     * @throws IOException when the valid labels file cant be read
+     */
+    public LinkedHashMap<String, String> get_result_settings(int skip, String validLabelsPath) throws IOException {
+        LinkedHashMap<String, String> settings = new LinkedHashMap<>();
+        settings.put("video", this.file.getAbsolutePath());
+        if (this.growing == null) {
+            settings.put("video_bytes", String.valueOf(this.file.length()));
+            settings.put("video_frames", String.valueOf(this.frames));
+        }
+        settings.put("valid_labels", (validLabelsPath == null) ? "" : hash_bytes(Files.readAllBytes(new File(validLabelsPath).toPath())));
+        int[] strides = ((this.adaptiveStride > 1) || (this.pipelineThreads > 1)) ? null : this.make_strides(skip);
+        settings.put("strides", Arrays.toString(strides));
+        settings.put("adaptive_stride", String.valueOf(this.adaptiveStride));
+        settings.put("adaptive_clock_tolerance", String.valueOf(this.adaptiveTolerance));
+        settings.put("reuse_unchanged_regions", String.valueOf(this.reuseUnchanged));
+        settings.put("glyph_cache_size", String.valueOf(options.CD.GLYPH_CACHE()));
+        settings.put("name_matcher", options.ND.MATCHER());
+        settings.put("bitmask_margin", String.valueOf(options.ND.BITMASK_MARGIN()));
+        return settings;
+    }
+
+
+    /** Gets the hex SHA-256 digest of some bytes. */
+    private static String hash_bytes(byte[] bytes) {
+        MessageDigest digest;
+        try { digest = MessageDigest.getInstance("SHA-256"); }
+        catch (NoSuchAlgorithmException e) { throw new RuntimeException(e); }
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest(bytes)) { hex.append(String.format("%02x", b)); }
+        return hex.toString();
+    }
+
+
+    /** Gets a set of detectors for another detection thread. */
+    private Detector[] borrow_detectors() throws IOException {
+        return (this.detectorPool == null) ? make_detectors() : this.detectorPool.take();
+    }
+
+
+    /** Returns detectors from <code>borrow_detectors</code> once their thread is done with them. */
+    private void return_detectors(Detector[] detectors) {
+        if (this.detectorPool != null) { this.detectorPool.give(detectors); }
+    }
+
+
+    /** Returns this parser's detectors to their pool, if they were borrowed. The parser cant parse afterwards. */
+    public void release() {
+        if ((this.detectorPool != null) && (this.detectors != null)) { this.detectorPool.give(this.detectors); }
+        this.detectors = null;
+    }
+
+
+    /** Makes the names detectors are timed under, one per detector. */
+    private String[] make_detect_stages() {
+        String[] output = new String[this.detectors.length];
+        for (int i = 0; i < this.detectors.length; i++) { output[i] = ParseTimings.STAGE_DETECT + this.detectors[i].get_key(); }
+        return output;
+    }
+
+
+    /** Gets the keys of this parser's detectors, in the order results are written. */
+    public String[] get_detector_keys() {
+        String[] keys = new String[this.detectors.length];
+        for (int i = 0; i < this.detectors.length; i++) { keys[i] = this.detectors[i].get_key(); }
+        return keys;
+    }
+
+
 
     ///////////////////////////////////////////////////////////////////////////
     // OPENCV WRAPPERS ////////////////////////////////////////////////////////
     ///////////////////////////////////////////////////////////////////////////
 
-    /** Wrapper for cap.isOpened() */
-    public boolean is_open() { return this.video.isOpened(); }
+    /** Checks whether the frame source is open. */
+    public boolean is_open() { return this.source.is_open(); }
 
 
-    /** Wrapper for opencv.open() */
+    /** Opens the frame source at the start of the video. */
     public void open(){
-        this.video.open(this.file.getAbsolutePath());
+        this.source.open();
         if (!this.is_open()){ throw new RuntimeException("Unable to open the file. Might not be a valid path, or maybe missing opencv dlls (e.g. ffmpeg<stuff>.dll."); }
     }
 
 
-    /** Wrapper for opencv.release() */
-    public void close(){ this.video.release(); }
+    /** Closes the frame source. */
+    public void close(){ this.source.close(); }
+
 
+    /** Gets the time of the last frame read in milliseconds (like cap.get(CV_CAP_PROP_POS_MSEC)). */
+    public double current_time() { return this.source.time(); }
 
-    /** Wrapper for cap.get(CV_CAP_PROP_POS_MSEC) */
-    public double current_time() { return this.video.get(CV_CAP_PROP_POS_MSEC); }
 
+    /** Gets the index one past the last frame read (like cap.get(CV_CAP_PROP_POS_FRAMES)). */
+    public int current_index() { return this.source.index(); }
 
-    /** Wrapper for cap.get(CV_CAP_PROP_POS_FRAMES ) */
-    public int current_index() { return (int) this.video.get(CV_CAP_PROP_POS_FRAMES); }
+
+    /**
+     * Moves the video forward or backward so that the next read returns the target frame.
+     * <p>
+     * In sequential sampling mode, short forward gaps are crossed with grab(),
+     * which decodes but does not convert the skipped frames. Backward moves and
+     * gaps longer than the keyframe interval (where a seek only has to decode
+     * from the nearest keyframe) use a seek instead, as do sources that skip
+     * frames themselves.
+     *
+     * @param target index of the next frame to read
+     * @param position index of the frame the video would return on the next read
+     */
+    private void move_to(int target, int position) {
+        int gap = target - position;
+        if (gap == 0) { return; }
+        if (this.sampling.equals(SAMPLING_SEEK) || (gap < 0) || (gap > this.keyframeInterval) || (this.source.step() > 1)) {
+            this.source.seek(target);
+        }
+        else {
+            for (int g = 0; g < gap; g++) {
+                if (!this.source.grab()) { break; }
+            }
+        }
+    }
+
+
+    /**
+     * Estimates how many frames can be decoded with grab() in the time one
+     * seek takes, by timing seeks spread over the video against runs of
+     * sequential grabs after them. The video must be open.
+     *
+     * @return seek cost in frames, at least 1
+     */
+    private int measure_seek_cost() {
+        long seekNanos = 0;
+        long grabNanos = 0;
+        int seeks = 0;
+        int grabs = 0;
+        long t0;
+        long t1;
+        for (int p = 0; p < SEEK_PROBES; p++) {
+            t0 = System.nanoTime();
+            this.source.seek((int) (((long) this.frames * (2*p + 1)) / (2*SEEK_PROBES)));
+            if (!this.source.grab()) { continue; }
+            t1 = System.nanoTime();
+            seekNanos += t1 - t0;
+            seeks += 1;
+            for (int g = 0; (g < SEEK_PROBE_GRABS) && this.source.grab(); g++) { grabs += 1; }
+            grabNanos += System.nanoTime() - t1;
+        }
+        if ((seeks == 0) || (grabs == 0)) { return this.keyframeInterval; }
+        double grabCost = (double) grabNanos / grabs;
+        return (int) Math.max(1, Math.round(((double) seekNanos / seeks - grabCost) / grabCost));
+    }
+
+
+    /**
+     * Groups sorted frame indices so that consecutive frames in a group are at
+     * most maxGap frames apart. Each group is reached with one seek and then
+     * decoded through sequentially.
+     *
+     * @param sortedFrames frame indices in increasing order
+     * @param maxGap largest gap to decode through rather than seek over
+     * @return groups of frame indices, in order
+     */
+    private static ArrayList<int[]> plan_seeks(Integer[] sortedFrames, int maxGap) {
+        ArrayList<int[]> groups = new ArrayList<>();
+        int first = 0;
+        for (int f = 1; f <= sortedFrames.length; f++) {
+            if ((f == sortedFrames.length) || ((sortedFrames[f] - sortedFrames[f-1]) > maxGap)) {
+                int[] group = new int[f - first];
+                for (int g = first; g < f; g++) { group[g - first] = sortedFrames[g]; }
+                groups.add(group);
+                first = f;
+            }
+        }
+        return groups;
+    }
 
 
 
@@ -243,44 +622,550 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
     public ArrayList<ParserResult> parse(int skip) throws IOException { return parse(skip, null); }
 
 
+    /** Parses the video to detect objects with this parser's number of workers. See <code>parse(skip, validLabels, workers)</code>. */
+    public ArrayList<ParserResult> parse(int skip, HashMap<String, OrderedIntervals> validLabels) throws IOException {
+        return parse(skip, validLabels, this.workers);
+    }
+
+
+    /**
+     * Parses the video to detect objects, keeping all results in memory. See
+     * <code>parse(skip, validLabels, writer, workers)</code>.
+     *
+     * @return list of nested ParserResults, one for each round of detection,
+     *      each containing results for every detector
+     */
+    public ArrayList<ParserResult> parse(int skip, HashMap<String, OrderedIntervals> validLabels, int workers) throws IOException {
+        ResultWriter.Collector collector = new ResultWriter.Collector(this.get_detector_keys());
+        parse(skip, validLabels, collector, workers);
+        return collector.results();
+    }
+
+
+    /** Parses the video to detect objects with this parser's number of workers. See <code>parse(skip, validLabels, writer, workers)</code>. */
+    public void parse(int skip, HashMap<String, OrderedIntervals> validLabels, ResultWriter writer) throws IOException {
+        parse(skip, validLabels, writer, this.workers);
+    }
+
+
     /**
      * Parses the video to detect objects. Detection depends on detectors in this.detectors.
+     * <p>
+     * Results are passed to the writer in frame order as they are produced.
+     * With more than one worker, the sampled frames are split into contiguous
+     * segments that are parsed at the same time, each by a parser with its own
+     * video handle and detectors. The first segment writes directly to the
+     * writer and later segments spool to temporary files until the segments
+     * before them are written. Results are identical to a single worker.
      *
      * @param skip number of frames to skip between each round of detection
      * @param validLabels map of valid labels for each detector at any specified intervals as returned by <code>load_valid_labels</code>. Unspecified intervals assume all labels are valid.
-     * @return list of nested ParserResults, one for each round of detection,
+     * @param writer destination of results, one for each round of detection,
      *      each containing results for every detector
+     * @param workers number of segments to parse in parallel
      */
-    public ArrayList<ParserResult> parse(int skip, HashMap<String, OrderedIntervals> validLabels) throws IOException {
-        ArrayList<ParserResult> outputs = new ArrayList<>();
-        String label;
+    public void parse(int skip, HashMap<String, OrderedIntervals> validLabels, ResultWriter writer, int workers) throws IOException {
+        parse(skip, validLabels, writer, workers, 0);
+    }
+
+
+    /**
+     * Parses the video from the given frame on, e.g. to resume an interrupted
+     * parse. See <code>parse(skip, validLabels, writer, workers)</code>.
+     *
+     * @param start index of the first frame to parse (should be a multiple of skip)
+     */
+    public void parse(int skip, HashMap<String, OrderedIntervals> validLabels, ResultWriter writer, int workers, int start) throws IOException {
+
+        // split the sampled frames evenly among the workers. Segment bounds
+        // fall on multiples of skip so every worker samples the same frames
+        // a single worker would, and on multiples of every detector's stride
+        // so they detect on the same frames too
+        int samples = Math.max(0, (this.frames - 1 - start) / skip);
+        int align = this.get_stride_alignment(skip);
+        int blocks = (samples + align - 1) / align;
+        workers = Math.min(workers, blocks);
+        this.timings.reset();
+        if ((this.ffmpeg != null) && (this.growing == null)) {
+            this.use_source(new PipeFrameSource(this.ffmpeg, this.file, this.rate, this.frames, skip, this.region_crops()));
+        }
+        if (this.growing != null) {
+            parse_growing(skip, validLabels, writer, start);
+            this.timings.finish();
+            this.report_reused();
+            return;
+        }
+        if (workers <= 1) {
+            parse(skip, validLabels, start, this.frames, writer, true);
+            this.timings.finish();
+            this.report_reused();
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        ArrayList<Future<Void>> segments = new ArrayList<>(workers);
+        ResultWriter[] segmentWriters = new ResultWriter[workers];
+        File[] spools = new File[workers];
+        for (int w = 0; w < workers; w++) {
+            int segmentStart = start + skip * Math.min(samples, align * (int) (((long) blocks * w) / workers));
+            int segmentStop = start + skip * Math.min(samples, align * (int) (((long) blocks * (w + 1)) / workers));
+            if (w == 0) { segmentWriters[w] = writer; }
+            else if (writer instanceof ResultWriter.Collector) { segmentWriters[w] = new ResultWriter.Collector(writer.get_detector_keys()); }
+            else {
+                spools[w] = File.createTempFile("vgv_segment", ".bin");
+                segmentWriters[w] = new BinaryResultWriter(spools[w].getAbsolutePath(), writer.get_detector_keys());
+            }
+            VideoParser worker = new VideoParser(this);
+            ResultWriter segmentWriter = segmentWriters[w];
+            segments.add(executor.submit(() -> {
+                try { worker.parse(skip, validLabels, segmentStart, segmentStop, segmentWriter, false); }
+                finally {
+                    worker.release();
+                    if (segmentWriter != writer) { segmentWriter.close(); }
+                }
+                return null;
+            }));
+        }
+        executor.shutdown();
+
+        // wait for all segments, then copy later segments to the writer in
+        // frame order
+        try {
+            for (int w = 0; w < workers; w++) {
+                segments.get(w).get();
+                System.out.print(String.format("\rParsing video. %3.0f%% complete.", 100d*((double) (w + 1))/workers));
+            }
+            for (int w = 1; w < workers; w++) {
+                if (spools[w] == null) {
+                    for (ParserResult result : ((ResultWriter.Collector) segmentWriters[w]).results()) { writer.write(result); }
+                }
+                else {
+                    BinaryResultReader reader = new BinaryResultReader(spools[w].getAbsolutePath());
+                    try { while (reader.hasNext()) { writer.write(reader.next()); } }
+                    finally { reader.close(); }
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw new IOException("Interrupted while waiting for video segments to parse.", e);
+        }
+        catch (ExecutionException e) {
+            executor.shutdownNow();
+            if (e.getCause() instanceof IOException) { throw (IOException) e.getCause(); }
+            throw new RuntimeException(e.getCause());
+        }
+        finally {
+            for (File spool : spools) {
+                if ((spool != null) && !spool.delete()) { spool.deleteOnExit(); }
+            }
+        }
+        System.out.println("\rParsing video. 100% complete.");
+        this.timings.finish();
+        this.report_reused();
+    }
+
+
+    /**
+     * Parses a video that is still being written, one frame at a time, from
+     * the start frame until the writer finishes it. The frame count isnt
+     * known until then, so the video isnt split among workers.
+     */
+    private void parse_growing(int skip, HashMap<String, OrderedIntervals> validLabels, ResultWriter writer, int start) throws IOException {
+        writer = this.use_strides(skip, writer);
+        FrameIterator frameIter = new FrameIterator(this, skip, start, Integer.MAX_VALUE);
+        int parsed = 0;
+        try {
+            while (frameIter.has_next_growing()) {
+                writer.write(detect(frameIter.next(), this.detectors, validLabels, this.memo));
+                parsed += 1;
+                System.out.print(String.format("\rParsing video. %d frames parsed.", parsed));
+            }
+        }
+        finally { if (this.is_open()) { this.close(); } }
+        this.frames = Math.max(this.frames, frameIter.get_frame_index() - skip + 1);
+        System.out.println(String.format("\rParsing video. %d frames parsed.", parsed));
+    }
+
+
+    /**
+     * Prints how many detections reused the label of an unchanged region, how
+     * many clock glyphs were answered by the clock detector's cache, how many
+     * names were taken early from the recently matched ones, how many
+     * labels were carried forward between detections, and how many saved
+     * predictions were dropped.
+     */
+    private void report_reused() {
+        if (this.reuseUnchanged) {
+            System.out.println(String.format("Reused labels of unchanged regions for %d of %d detections.", this.timings.reused_detections(), this.timings.detections()));
+        }
+        long lookups = this.timings.get_count(ClockDetectorDigitANN.COUNT_CACHE_LOOKUPS);
+        if (lookups > 0) {
+            long hits = this.timings.get_count(ClockDetectorDigitANN.COUNT_CACHE_HITS);
+            System.out.println(String.format("Glyph cache answered %d of %d clock glyphs (%.1f%% hit rate).", hits, lookups, 100d * hits / lookups));
+        }
+        long checks = this.timings.get_count(NameDetectorAvgImg.COUNT_EARLY_CHECKS);
+        if (checks > 0) {
+            long accepts = this.timings.get_count(NameDetectorAvgImg.COUNT_EARLY_ACCEPTS);
+            System.out.println(String.format("Took a recently matched name early for %d of %d name detections (%.1f%%).", accepts, checks, 100d * accepts / checks));
+        }
+        long carried = this.timings.get_count(COUNT_CARRIED);
+        long rechecks = this.timings.get_count(COUNT_RECHECKS);
+        if ((carried > 0) || (rechecks > 0)) {
+            System.out.println(String.format("Carried %d labels forward between detections and detected %d early after clock jumps.", carried, rechecks));
+        }
+        long dropped = this.timings.get_count(ClockDetectorDigitANN.COUNT_SAVES_DROPPED) + this.timings.get_count(NameDetectorAvgImg.COUNT_SAVES_DROPPED);
+        if (dropped > 0) {
+            System.out.println(String.format("Dropped %d saved predictions because the save queue was full.", dropped));
+        }
+    }
+
+
+    /**
+     * Parses a segment of the video to detect objects.
+     *
+     * @param skip number of frames to skip between each round of detection
+     * @param validLabels see <code>parse(skip, validLabels)</code>
+     * @param start index of the first frame to parse (should be a multiple of skip)
+     * @param stop index of the frame to stop parsing at (exclusive)
+     * @param writer destination of results, written in frame order
+     * @param report whether to print parsing progress
+     */
+    void parse(int skip, HashMap<String, OrderedIntervals> validLabels, int start, int stop, ResultWriter writer, boolean report) throws IOException {
+        if (this.adaptiveStride > 1) {
+            this.use_strides(0, writer);
+            parse_adaptive(skip, validLabels, start, stop, writer, report);
+            return;
+        }
+
+        // with more than one detection thread, which frames each thread sees
+        // (and so when its detectors first run and what clock it last read)
+        // changes from run to run, so every detector runs on every frame
+        writer = this.use_strides((this.pipelineThreads > 1) ? 0 : skip, writer);
+        FrameIterator frameIter = new FrameIterator(this, skip, start, stop);
+        if (this.pipelineThreads > 0) { parse_pipelined(frameIter, validLabels, writer, report); return; }
         Frame fullFrame;
-        Mat roiFrame;
-        ParserResult curResult;
-        FrameIterator frameIter = new FrameIterator(this, skip);
-        double videoTime;
-        String detectorKey;
-        List<String> detectorValidLabels;
         while (frameIter.hasNext()){
             fullFrame = frameIter.next();
-            videoTime = fullFrame.time() / 1000d;
-            curResult = new ParserResult(videoTime, fullFrame.index());
-            for (int i = 0; i < this.regions.length; i++){
-                detectorKey = this.detectors[i].get_key();
-                detectorValidLabels = null;
-                if ((validLabels != null) && validLabels.containsKey(detectorKey)) {
-                    detectorValidLabels = Arrays.asList((String[]) validLabels.get(detectorKey).query_time(videoTime).get_data());
+            writer.write(detect(fullFrame, this.detectors, validLabels, this.memo));
+            if (report) { System.out.print(String.format("\rParsing video. %3.0f%% complete.", 100d*((double) fullFrame.index())/frameIter.n)); }
+        }
+        if (report) { System.out.println("\rParsing video. 100% complete."); }
+    }
+
+
+    /**
+     * Parses the frames of an iterator with one decoding thread feeding a pool
+     * of detection threads.
+     * <p>
+     * Detection regions of decoded frames are copied into a fixed pool of
+     * reusable Frames, so the decoder blocks (rather than allocating) whenever
+     * detection falls behind.
+     * Each detection thread has its own detectors and returns frames to the
+     * pool when done with them. Results are passed to the writer in frame
+     * order as soon as all earlier frames are done.
+     *
+     * @param frameIter iterator over the frames to parse
+     * @param validLabels see <code>parse(skip, validLabels)</code>
+     * @param writer destination of results, written in frame order
+     * @param report whether to print parsing progress
+     */
+    private void parse_pipelined(FrameIterator frameIter, HashMap<String, OrderedIntervals> validLabels, ResultWriter writer, boolean report) throws IOException {
+
+        // build the frame pool and queue. The pool holds every frame the
+        // pipeline will ever use (only their detection regions), which caps
+        // native memory
+        int poolSize = this.pipelineQueue + this.pipelineThreads;
+        ArrayBlockingQueue<Frame> pool = new ArrayBlockingQueue<>(poolSize);
+        ArrayBlockingQueue<Frame> queue = new ArrayBlockingQueue<>(poolSize);
+        for (int f = 0; f < poolSize; f++) { pool.add(new Frame()); }
+        Frame endOfVideo = new Frame(null, -1, -1);
+
+        // finished results wait here until every earlier frame is finished
+        ConcurrentLinkedQueue<Integer> order = new ConcurrentLinkedQueue<>();
+        ConcurrentHashMap<Integer, ParserResult> finished = new ConcurrentHashMap<>();
+
+        // start the detection threads, each with their own detectors
+        ExecutorService executor = Executors.newFixedThreadPool(this.pipelineThreads);
+        ArrayList<Future<Void>> consumers = new ArrayList<>(this.pipelineThreads);
+        for (int t = 0; t < this.pipelineThreads; t++) {
+            boolean borrowed = (t > 0);
+            Detector[] threadDetectors = borrowed ? borrow_detectors() : this.detectors;
+            RegionMemo threadMemo = borrowed ? new RegionMemo() : this.memo;
+            consumers.add(executor.submit(() -> {
+                Frame frame;
+                try {
+                    while ((frame = queue.take()) != endOfVideo) {
+                        finished.put(frame.index(), detect(frame, threadDetectors, validLabels, threadMemo));
+                        pool.put(frame);
+                        synchronized (order) {
+                            while ((order.peek() != null) && finished.containsKey(order.peek())) {
+                                writer.write(finished.remove(order.poll()));
+                            }
+                        }
+                    }
                 }
-                roiFrame = fullFrame.mat().submat(this.regions[i]);
-                label = "";
-                label = this.detectors[i].detect(roiFrame, detectorValidLabels);
-                curResult.put(this.detectors[i].get_key(), label);
+                finally { if (borrowed) { return_detectors(threadDetectors); } }
+                return null;
+            }));
+        }
+        executor.shutdown();
+
+        // decode frames into the pool on this thread
+        Frame fullFrame;
+        try {
+            while (frameIter.hasNext()) {
+                fullFrame = await_frame(pool, consumers);
+                frameIter.next(fullFrame);
+                order.add(fullFrame.index());
+                queue.put(fullFrame);
+                if (report) { System.out.print(String.format("\rParsing video. %3.0f%% complete.", 100d*((double) fullFrame.index())/frameIter.n)); }
             }
-            outputs.add(curResult);
-            System.out.print(String.format("\rParsing video. %3.0f%% complete.", 100d*((double) fullFrame.index())/frameIter.n));
+            for (int t = 0; t < this.pipelineThreads; t++) { queue.put(endOfVideo); }
+            for (Future<Void> consumer : consumers) { consumer.get(); }
         }
-        System.out.println("\rParsing video. 100% complete.");
-        return outputs;
+        catch (InterruptedException e) {
+            executor.shutdownNow();
+            throw new IOException("Interrupted while parsing video.", e);
+        }
+        catch (ExecutionException e) {
+            executor.shutdownNow();
+            if (e.getCause() instanceof IOException) { throw (IOException) e.getCause(); }
+            throw new RuntimeException(e.getCause());
+        }
+        finally {
+            if (this.is_open()) { this.close(); }
+        }
+        if (report) { System.out.println("\rParsing video. 100% complete."); }
+    }
+
+
+    /**
+     * Parses a segment of the video, using the game clock to skip decoding
+     * frames where nothing is changing.
+     * <p>
+     * Every adaptiveStride-th sampled frame is decoded first. When two decoded
+     * frames agree (all non-clock labels are the same and the clock either
+     * stayed the same or advanced with the video), the sampled frames between
+     * them are filled in without decoding, advancing the clock with the video.
+     * Otherwise the span is bisected, first on sampled frames and then on
+     * single frames, so transitions (cuts, pauses, hero changes) are found to
+     * the exact frame. Frames decoded during bisection are included in the
+     * output along with every sampled frame.
+     *
+     * @param skip number of frames to skip between each round of detection
+     * @param validLabels see <code>parse(skip, validLabels)</code>
+     * @param start index of the first frame to parse (should be a multiple of skip)
+     * @param stop index of the frame to stop parsing at (exclusive)
+     * @param writer destination of results, written in frame order
+     * @param report whether to print parsing progress
+     */
+    private void parse_adaptive(int skip, HashMap<String, OrderedIntervals> validLabels, int start, int stop, ResultWriter writer, boolean report) throws IOException {
+        if ((start >= stop) || ((start + skip) >= this.frames)) { return; }
+        int last = start;
+        while (((last + skip) < stop) && ((last + 2*skip) < this.frames)) { last += skip; }
+
+        // find the clock detector. Without one, spans are only filled in
+        // when nothing changes
+        int clock = -1;
+        for (int i = 0; i < this.detectors.length; i++) {
+            if (this.detectors[i] instanceof ClockDetectorDigitANN) { clock = i; }
+        }
+
+        AdaptiveSampler sampler = new AdaptiveSampler(new FrameIterator(this, skip, start, stop), validLabels, skip, start, clock);
+        try {
+            Probe previous = sampler.probe(start);
+            sampler.write(previous.result, writer);
+            Probe current;
+            while (previous.frame < last) {
+                current = sampler.probe(Math.min(previous.frame + this.adaptiveStride*skip, last));
+                sampler.resolve(previous, current, writer);
+                sampler.write(current.result, writer);
+                previous = current;
+                if (report) { System.out.print(String.format("\rParsing video. %3.0f%% complete.", 100d*((double) previous.frame)/this.frames)); }
+            }
+        }
+        finally {
+            if (this.is_open()) { this.close(); }
+        }
+        if (report) {
+            System.out.println("\rParsing video. 100% complete.");
+            System.out.println(String.format("Decoded %d frames for %d results.", sampler.decoded, sampler.written));
+        }
+    }
+
+
+    /**
+     * Sets up each detector's stride for a parse that samples every skip-th
+     * frame, or has every detector run on every frame with a skip of 0 (e.g.
+     * for adaptive sampling, which needs every label of the frames it decodes,
+     * or for more than one pipelined detection thread).
+     *
+     * @param skip number of frames between sampled frames
+     * @param writer destination of results
+     * @return writer to write results to, which carries labels forward between detections when needed
+     */
+    private ResultWriter use_strides(int skip, ResultWriter writer) {
+        this.strides = (skip > 0) ? this.make_strides(skip) : null;
+        this.strideSkip = Math.max(1, skip);
+        this.clock = -1;
+        for (int i = 0; i < this.detectors.length; i++) {
+            if (this.detectors[i] instanceof ClockDetectorDigitANN) { this.clock = i; }
+        }
+        this.memo.restart();
+        return (this.strides == null) ? writer : new ResultWriter.CarryForward(writer);
+    }
+
+
+    /** Makes the number of sampled frames between detections by each detector, or null if every detector runs on every sampled frame. */
+    private int[] make_strides(int skip) {
+        int[] strides = new int[this.detectors.length];
+        boolean any = false;
+        for (int i = 0; i < this.detectors.length; i++) {
+            strides[i] = (int) Math.max(1, Math.round(this.detectors[i].get_sample_interval() * this.rate / skip));
+            any |= (strides[i] > 1);
+        }
+        return any ? strides : null;
+    }
+
+
+    /**
+     * Gets the number of sampled frames that parsing in pieces (e.g. segments
+     * or chunks) should split on, so that each piece starts on a frame where
+     * every detector runs, as it would when parsing in one piece.
+     *
+     * @param skip number of frames between sampled frames
+     * @return least common multiple of the detectors' strides
+     */
+    int get_stride_alignment(int skip) {
+        int[] strides = ((this.adaptiveStride > 1) || (this.pipelineThreads > 1)) ? null : this.make_strides(skip);
+        long align = 1;
+        if (strides != null) {
+            for (int stride : strides) { align = align / gcd(align, stride) * stride; }
+        }
+        return (int) Math.min(align, Integer.MAX_VALUE);
+    }
+
+
+    private static long gcd(long a, long b) { return (b == 0) ? a : gcd(b, a % b); }
+
+
+    /**
+     * Whether the i-th detector runs on the frame at the given position in the
+     * video, which it does every stride-th sampled frame (counting from the
+     * start of the video, like segment bounds) and on the first frame it sees
+     * in a parse.
+     */
+    private boolean is_due(int i, int position, RegionMemo memo) {
+        return (this.strides[i] <= 1) || !memo.sampled(i) || (((position / this.strideSkip) % this.strides[i]) == 0);
+    }
+
+
+    /** Converts a detected game clock label (e.g. 12:34) to seconds, or returns -1 if it isnt a valid clock. */
+    private static int clock_to_seconds(String label) {
+        if (label == null) { return -1; }
+        String[] split = label.split(CLOCK_SEPARATOR);
+        if ((split.length != 2) || (split[0].length() == 0) || (split[1].length() != 2)) { return -1; }
+        try { return Integer.valueOf(split[0])*60 + Integer.valueOf(split[1]); }
+        catch (NumberFormatException e) { return -1; }
+    }
+
+
+    /** Converts seconds of game time to a game clock label in the format detected by the clock detector. */
+    private static String seconds_to_clock(int seconds) {
+        return String.format("%d%s%02d", seconds / 60, CLOCK_SEPARATOR, seconds % 60);
+    }
+
+
+    /** Takes a free frame from the pool, failing if any detection thread has stopped early. */
+    private static Frame await_frame(BlockingQueue<Frame> pool, List<Future<Void>> consumers) throws InterruptedException, ExecutionException {
+        Frame frame;
+        while ((frame = pool.poll(100, TimeUnit.MILLISECONDS)) == null) {
+            for (Future<Void> consumer : consumers) {
+                if (consumer.isDone()) { consumer.get(); throw new IllegalStateException("Detection thread stopped early."); }
+            }
+        }
+        return frame;
+    }
+
+
+    /**
+     * Passes a frame through the given detectors and returns the detected labels.
+     * Regions identical to the ones last passed through the detectors (with
+     * the same valid labels) reuse their labels without detection.
+     * <p>
+     * Detectors with a stride only run on the frames they are due on (see
+     * <code>is_due</code>) and are left out of the result otherwise, so their
+     * last label is carried forward when it is written. The clock runs first,
+     * and when it jumps (i.e. doesnt stay the same or advance with the video)
+     * every other detector runs as well.
+     *
+     * @param frame frame to detect objects in
+     * @param detectors detectors to use, one per region in this.regions
+     * @param validLabels see <code>parse(skip, validLabels)</code>
+     * @param memo regions last seen by the detectors. Only use with the same detectors
+     * @return ParserResult for the frame
+     */
+    private ParserResult detect(Frame frame, Detector[] detectors, HashMap<String, OrderedIntervals> validLabels, RegionMemo memo) throws IOException {
+        double videoTime = frame.time() / 1000d;
+        ParserResult result = new ParserResult(videoTime, frame.index());
+        if (this.strides == null) {
+            for (int i = 0; i < this.regions.length; i++) {
+                result.put(detectors[i].get_key(), detect(frame, i, detectors[i], validLabels, memo, videoTime));
+            }
+            return result;
+        }
+        // the frame's index is one past its position in the video
+        int position = frame.index() - 1;
+        boolean jumped = false;
+        String label;
+        if (this.clock >= 0) {
+            if (this.is_due(this.clock, position, memo)) {
+                label = detect(frame, this.clock, detectors[this.clock], validLabels, memo, videoTime);
+                result.put(detectors[this.clock].get_key(), label);
+                jumped = memo.clock_jumped(videoTime, label, this.adaptiveTolerance);
+            }
+            else { this.timings.add_count(COUNT_CARRIED, 1); }
+        }
+        for (int i = 0; i < this.regions.length; i++) {
+            if (i == this.clock) { continue; }
+            if (!this.is_due(i, position, memo)) {
+                if (!jumped) {
+                    this.timings.add_count(COUNT_CARRIED, 1);
+                    continue;
+                }
+                this.timings.add_count(COUNT_RECHECKS, 1);
+            }
+            result.put(detectors[i].get_key(), detect(frame, i, detectors[i], validLabels, memo, videoTime));
+        }
+        return result;
+    }
+
+
+    /** Detects the label of the i-th region of a frame, reusing the last label if the region is unchanged. See <code>detect(frame, detectors, validLabels, memo)</code>. */
+    private String detect(Frame frame, int i, Detector detector, HashMap<String, OrderedIntervals> validLabels, RegionMemo memo, double videoTime) throws IOException {
+        String detectorKey = detector.get_key();
+        Interval interval = null;
+        List<String> detectorValidLabels = null;
+        String label;
+        long start;
+        if ((validLabels != null) && validLabels.containsKey(detectorKey)) {
+            interval = validLabels.get(detectorKey).query_time(videoTime);
+            detectorValidLabels = Arrays.asList((String[]) interval.get_data());
+        }
+        memo.sample(i);
+        if (this.reuseUnchanged && memo.matches(i, frame.fingerprint(i), interval)) {
+            label = memo.label(i);
+            this.timings.count_detection(true);
+        }
+        else {
+            start = System.nanoTime();
+            label = detector.detect(frame.region(i), detectorValidLabels);
+            this.timings.record(this.detectStages[i], System.nanoTime() - start);
+            detector.drain_counts(this.counts);
+            memo.update(i, frame.fingerprint(i), interval, label);
+            this.timings.count_detection(false);
+        }
+        return label;
     }
 
 
@@ -292,24 +1177,10 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
      * @throws IOException when the output file cant be written to
      */
     public static void save_detection_results(ArrayList<ParserResult> results, String outFile) throws IOException {
-
-        // build the header row of the file
         String[] detectorKeys = results.get(0).results.keySet().toArray(new String[0]);
-        String header = String.join(CSV_SEPARATOR, CSV_FRAMECOL, CSV_TIMECOL, String.join(CSV_SEPARATOR, detectorKeys));
-
-        // write header and results
-        FileWriter writer = new FileWriter(outFile);
-        writer.write(header);
-        String[] row = new String[detectorKeys.length+2];
-        for (ParserResult r : results) {
-            row[0] = String.format("%d", r.frame());
-            row[1] = String.format("%f", r.time());
-            for (int i = 0; i < detectorKeys.length; i++){
-                row[i+2] = r.get(detectorKeys[i]);
-            }
-            writer.write("\n" + String.join(CSV_SEPARATOR, row));
-        }
-        writer.close();
+        CsvResultWriter writer = new CsvResultWriter(outFile, detectorKeys);
+        try { for (ParserResult r : results) { writer.write(r); } }
+        finally { writer.close(); }
     }
 
 
@@ -486,7 +1357,7 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
 
 
     // Load valid labels at various times throughout the video to be processed
-    private HashMap<String, OrderedIntervals> load_valid_labels(String csvPath) throws IOException {
+    HashMap<String, OrderedIntervals> load_valid_labels(String csvPath) throws IOException {
         FileReader fileReader = new FileReader(csvPath);
         BufferedReader bufferedReader = new BufferedReader(fileReader);
         String[] row = split_and_trim_string(bufferedReader.readLine(), CSV_SEPARATOR);
@@ -541,33 +1412,50 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
      * 12,abaddon,10:23
      * 44,drow ranger,22:04
      *
+     * <p>
+     * Frames close enough together that decoding through the gap is cheaper
+     * than a seek (as measured on the video) are read in one sequential pass.
+     *
      * @param inputFile path to the csv containing the labels and frame indices
      * @return paths to saved image files
      */
     public ArrayList<String> parse_training_images_by_file(String inputFile) throws IOException {
         ArrayList<String> outputs = new ArrayList<>();
         String key;
-        Frame fullFrame;
+        Mat fullFrame = new Mat();
         Mat roiFrame;
         HashMap<Integer, String[]> labels = load_timing_csv(inputFile);
         Integer[] framesToQuery = labels.keySet().toArray(new Integer[0]);
         Arrays.sort(framesToQuery);
-        FrameIterator frameIter = new FrameIterator(this, 1);
 
-        // loop over all frames, but only inspect those that have some definition in the timing csv
+        // plan seeks between groups of nearby frames
         this.open();
-        for (int frameIndex : framesToQuery) {
-            this.video.set(CV_CAP_PROP_POS_FRAMES, frameIndex);
-            System.out.print(String.format("\rProcessing frame %s of %s (%.0f%%)", frameIndex, this.frames, (100d*frameIndex/this.frames)));
-            fullFrame = frameIter.next();
-            for (int i = 0; i < this.detectors.length; i++){
-                key = labels.get(frameIndex)[i];
-                if (key != null){
-                    roiFrame = fullFrame.mat().submat(this.regions[i]);
-                    outputs.add(this.trainers[i].save_image(roiFrame, key));
+        int seekCost = this.measure_seek_cost();
+        ArrayList<int[]> groups = plan_seeks(framesToQuery, seekCost);
+        System.out.println(String.format("Reading %d frames in %d passes (seek cost %d frames).", framesToQuery.length, groups.size(), seekCost));
+
+        // decode through each group, only retrieving frames that have some
+        // definition in the timing csv
+        int position;
+        for (int[] group : groups) {
+            this.source.seek(group[0]);
+            position = group[0];
+            for (int frameIndex : group) {
+                while ((position < frameIndex) && this.source.grab()) { position += 1; }
+                if ((position < frameIndex) || !this.source.grab()) { break; }
+                this.source.retrieve(fullFrame);
+                position += 1;
+                System.out.print(String.format("\rProcessing frame %s of %s (%.0f%%)", frameIndex, this.frames, (100d*frameIndex/this.frames)));
+                for (int i = 0; i < this.detectors.length; i++){
+                    key = labels.get(frameIndex)[i];
+                    if (key != null){
+                        roiFrame = fullFrame.submat(this.regions[i]);
+                        outputs.add(this.trainers[i].save_image(roiFrame, key));
+                    }
                 }
             }
         }
+        this.close();
         return outputs;
     }
 
@@ -640,16 +1528,16 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
         while (this.is_open()) {
 
             // skip frames
-            backOneFrame.activate(this.video);
-            backOneSecond.activate(this.video);
-            backOneMinute.activate(this.video);
-            forwardOneFrame.activate(this.video);
-            forwardOneSecond.activate(this.video);
-            forwardOneMinute.activate(this.video);
+            backOneFrame.activate(this.source);
+            backOneSecond.activate(this.source);
+            backOneMinute.activate(this.source);
+            forwardOneFrame.activate(this.source);
+            forwardOneSecond.activate(this.source);
+            forwardOneMinute.activate(this.source);
 
             // get the next frame
             if (this.current_index() == (this.frames-1)) { backOneFrame.isDown = true; }
-            this.video.read(frame.mat);
+            this.source.read(frame.mat);
             img.setImage(mat_to_img(frame.mat));
             imageLabel.setText(String.format("Frame %d/%d, Time(s) %.4f", this.current_index(), this.frames, this.current_time()/1000d));
             imageLabel.repaint();
@@ -660,12 +1548,12 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
             lapse = curTime - lastDisplay;
             while (
                     (pause.paused() || (lapse < delay)) &&
-                    !backOneFrame.activate(this.video) &&
-                    !forwardOneFrame.activate(this.video) &&
-                    !backOneSecond.activate(this.video) &&
-                    !forwardOneSecond.activate(this.video) &&
-                    !backOneMinute.activate(this.video) &&
-                    !forwardOneMinute.activate(this.video)
+                    !backOneFrame.activate(this.source) &&
+                    !forwardOneFrame.activate(this.source) &&
+                    !backOneSecond.activate(this.source) &&
+                    !forwardOneSecond.activate(this.source) &&
+                    !backOneMinute.activate(this.source) &&
+                    !forwardOneMinute.activate(this.source)
             ) {
                 curTime = System.currentTimeMillis();
                 lapse = curTime - lastDisplay;
@@ -684,13 +1572,103 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
 
 
 
+    ///////////////////////////////////////////////////////////////////////////
+    // SAMPLING SETTINGS //////////////////////////////////////////////////////
+    ///////////////////////////////////////////////////////////////////////////
+
+    /** Sets how frame iterators move between sampled frames, either SAMPLING_SEEK or SAMPLING_SEQUENTIAL. */
+    public void set_sampling(String sampling) {
+        if (!(sampling.equals(SAMPLING_SEEK) || sampling.equals(SAMPLING_SEQUENTIAL))) {
+            throw new IllegalArgumentException(String.format("Unknown sampling mode %s", sampling));
+        }
+        this.sampling = sampling;
+    }
+
+    /** Sets the expected number of frames between keyframes, beyond which sequential sampling seeks instead. */
+    public void set_keyframe_interval(int frames) { this.keyframeInterval = frames; }
+
+    /**
+     * Sets up clock-guided adaptive sampling (see <code>parse_adaptive</code>).
+     *
+     * @param stride number of sampled frames between decoded frames when the clock is in step with the video; 1 or less disables adaptive sampling
+     * @param tolerance seconds the clock may drift from video time and still be considered in step
+     */
+    public void set_adaptive(int stride, double tolerance) {
+        this.adaptiveStride = stride;
+        this.adaptiveTolerance = tolerance;
+    }
+
+    /** Sets whether to reuse labels of detection regions identical to the previous ones instead of detecting again. */
+    public void set_reuse_unchanged(boolean reuse) { this.reuseUnchanged = reuse; }
+
+    /** Gets how many detections of the last parse reused the label of an unchanged region. */
+    public long get_reused_detections() { return this.timings.reused_detections(); }
+
+    /** Gets the time spent in each stage of the last parse. */
+    public ParseTimings get_timings() { return this.timings; }
+
+    /** Gets the frame rate of the video. */
+    public int get_fps() { return this.fps; }
+
+    /** Gets the number of frames in the video. */
+    public int get_frames() { return this.frames; }
+
+    /** Sets the number of segments parsed in parallel. Values less than 1 use one worker per available processor. */
+    public void set_workers(int workers) { this.workers = worker_count(workers); }
+
+    /**
+     * Sets parsing to read frames from a local ffmpeg instead of OpenCV. ffmpeg
+     * hands over only the sampled frames, cropped to the detectors' regions.
+     * Other tasks (and parsing a growing video) still use OpenCV.
+     *
+     * @param ffmpeg path to the ffmpeg executable, or null to use OpenCV
+     */
+    public void set_ffmpeg(String ffmpeg) { this.ffmpeg = ffmpeg; }
+
+    /** Switches to a new frame source, updating detection regions to match it. */
+    private void use_source(FrameSource source) {
+        if (this.is_open()) { this.close(); }
+        this.source = source;
+        this.regions = make_regions();
+    }
+
+    /**
+     * Sets up pipelined parsing, where one thread decodes frames for several detection threads.
+     *
+     * @param threads number of detection threads; 0 decodes and detects on the same thread
+     * @param queueSize number of decoded frames that may wait for detection
+     */
+    public void set_pipeline(int threads, int queueSize) {
+        if (queueSize < 1) { throw new IllegalArgumentException("Pipeline queue must hold at least one frame."); }
+        this.pipelineThreads = Math.max(0, threads);
+        this.pipelineQueue = queueSize;
+    }
+
+    private static int worker_count(int workers) {
+        if (workers < 1) { return Runtime.getRuntime().availableProcessors(); }
+        return workers;
+    }
+
+
+
     ///////////////////////////////////////////////////////////////////////////
     // HELPER CLASSES /////////////////////////////////////////////////////////
     ///////////////////////////////////////////////////////////////////////////
 
-    /** This class holds an opencv Mat frame in a video and the time in the video of that frame. */
+    /**
+     * This class holds an opencv Mat frame in a video and the time in the video of that frame.
+     * <p>
+     * Frames can also hold copies of just the detection regions of a full
+     * frame (see <code>update_regions</code>), in buffers that are allocated
+     * once and reused for every later frame.
+     */
     public static class Frame {
+        private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+        private static final long FNV_PRIME = 0x100000001b3L;
         private Mat mat = new Mat();
+        private Mat[] regions = null;
+        private byte[][] regionRows = null;
+        private long[] fingerprints = null;
         private double time;
         private int index;
         public Frame(){}
@@ -705,7 +1683,46 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
             this.index = index;
         }
         public void update(double time, int index){ this.time = time; this.index = index; }
+
+        /**
+         * Copies only the given regions of a full frame into this frame's region
+         * buffers, one row at a time so no full-frame copies or submat headers
+         * are made. Each region is fingerprinted with a 64-bit FNV-1a hash of
+         * its bytes as it is copied.
+         *
+         * @param mat full decoded frame
+         * @param regions regions to copy, in the same order every call
+         * @param time time in the video of the frame
+         * @param index index of the frame in the video
+         */
+        public void update_regions(Mat mat, Rect[] regions, double time, int index){
+            if (this.regions == null) {
+                this.regions = new Mat[regions.length];
+                this.regionRows = new byte[regions.length][];
+                this.fingerprints = new long[regions.length];
+                for (int k = 0; k < regions.length; k++) {
+                    this.regions[k] = new Mat(regions[k].height, regions[k].width, mat.type());
+                    this.regionRows[k] = new byte[regions[k].width * mat.channels()];
+                }
+            }
+            long hash;
+            byte[] row;
+            for (int k = 0; k < regions.length; k++) {
+                hash = FNV_OFFSET;
+                row = this.regionRows[k];
+                for (int y = 0; y < regions[k].height; y++) {
+                    mat.get(regions[k].y + y, regions[k].x, row);
+                    this.regions[k].put(y, 0, row);
+                    for (byte b : row) { hash = (hash ^ (b & 0xff)) * FNV_PRIME; }
+                }
+                this.fingerprints[k] = hash;
+            }
+            this.update(time, index);
+        }
+
         public Mat mat() { return this.mat; }
+        public Mat region(int i) { return this.regions[i]; }
+        public long fingerprint(int i) { return this.fingerprints[i]; }
         public double time() { return this.time; }
         public int index() { return this.index; }
     }
@@ -730,6 +1747,177 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
     }
 
 
+    /**
+     * Fingerprints and labels of the regions last passed through a set of
+     * detectors, which regions they have sampled in the current parse, and
+     * the last clock they read.
+     */
+    private static class RegionMemo {
+        private boolean[] seen = new boolean[0];
+        private long[] fingerprints = new long[0];
+        private Interval[] intervals = new Interval[0];
+        private String[] labels = new String[0];
+        private boolean[] sampled = new boolean[0];
+        private double clockTime = Double.NaN;
+        private String clockLabel = null;
+
+        /** Whether the i-th region matches the last one seen and was detected with the same valid labels. */
+        private boolean matches(int i, long fingerprint, Interval interval) {
+            return (i < this.seen.length) && this.seen[i] && (this.fingerprints[i] == fingerprint) && (this.intervals[i] == interval);
+        }
+
+        private String label(int i) { return this.labels[i]; }
+
+        private void update(int i, long fingerprint, Interval interval, String label) {
+            if (i >= this.seen.length) {
+                this.seen = Arrays.copyOf(this.seen, i + 1);
+                this.fingerprints = Arrays.copyOf(this.fingerprints, i + 1);
+                this.intervals = Arrays.copyOf(this.intervals, i + 1);
+                this.labels = Arrays.copyOf(this.labels, i + 1);
+            }
+            this.seen[i] = true;
+            this.fingerprints[i] = fingerprint;
+            this.intervals[i] = interval;
+            this.labels[i] = label;
+        }
+
+        /** Forgets which regions were sampled and the last clock, e.g. at the start of a parse. */
+        private void restart() {
+            Arrays.fill(this.sampled, false);
+            this.clockTime = Double.NaN;
+            this.clockLabel = null;
+        }
+
+        private boolean sampled(int i) { return (i < this.sampled.length) && this.sampled[i]; }
+
+        private void sample(int i) {
+            if (i >= this.sampled.length) { this.sampled = Arrays.copyOf(this.sampled, i + 1); }
+            this.sampled[i] = true;
+        }
+
+        /**
+         * Records a clock read at the given video time and checks whether it
+         * jumped from the last one, i.e. changed without advancing with the
+         * video to within the tolerance (seconds).
+         */
+        private boolean clock_jumped(double time, String label, double tolerance) {
+            boolean jumped = false;
+            if (!Double.isNaN(this.clockTime) && !Objects.equals(label, this.clockLabel)) {
+                int last = clock_to_seconds(this.clockLabel);
+                int seconds = clock_to_seconds(label);
+                jumped = (last < 0) || (seconds < 0) || (Math.abs((seconds - last) - (time - this.clockTime)) > tolerance);
+            }
+            this.clockTime = time;
+            this.clockLabel = label;
+            return jumped;
+        }
+    }
+
+
+    /** A decoded frame and its detection results, used in adaptive sampling. */
+    private static class Probe {
+        private int frame;
+        private double time;
+        private ParserResult result;
+        private Probe(int frame, ParserResult result) {
+            this.frame = frame;
+            this.time = result.time();
+            this.result = result;
+        }
+    }
+
+
+    /** Decodes, compares, and fills in frames for <code>parse_adaptive</code>. */
+    private class AdaptiveSampler {
+        private FrameIterator frameIter;
+        private HashMap<String, OrderedIntervals> validLabels;
+        private int skip;
+        private int start;
+        private int clock;
+        private int decoded = 0;
+        private int written = 0;
+        private Frame frame = new Frame();
+        private AdaptiveSampler(FrameIterator frameIter, HashMap<String, OrderedIntervals> validLabels, int skip, int start, int clock) {
+            this.frameIter = frameIter;
+            this.validLabels = validLabels;
+            this.skip = skip;
+            this.start = start;
+            this.clock = clock;
+        }
+
+        /** Decodes the frame at the given index and detects objects in it. */
+        private Probe probe(int index) throws IOException {
+            this.frameIter.next(index, this.frame);
+            this.decoded += 1;
+            return new Probe(index, detect(this.frame, detectors, this.validLabels, memo));
+        }
+
+        /** Checks whether the labels between two decoded frames can be filled in without decoding. */
+        private boolean in_step(Probe a, Probe b) {
+            String key;
+            for (int i = 0; i < detectors.length; i++) {
+                key = detectors[i].get_key();
+                if ((i != this.clock) && !Objects.equals(a.result.get(key), b.result.get(key))) { return false; }
+            }
+            if (this.clock < 0) { return true; }
+            key = detectors[this.clock].get_key();
+            if (Objects.equals(a.result.get(key), b.result.get(key))) { return true; }
+            int clockA = clock_to_seconds(a.result.get(key));
+            int clockB = clock_to_seconds(b.result.get(key));
+            if ((clockA < 0) || (clockB < 0)) { return false; }
+            return Math.abs((clockB - clockA) - (b.time - a.time)) <= adaptiveTolerance;
+        }
+
+        /** Writes a result and counts it. */
+        private void write(ParserResult result, ResultWriter writer) throws IOException {
+            writer.write(result);
+            this.written += 1;
+        }
+
+        /** Writes results between two decoded frames, bisecting until they are in step or adjacent. */
+        private void resolve(Probe a, Probe b, ResultWriter writer) throws IOException {
+            if (this.in_step(a, b)) {
+                for (int g = this.next_sample(a.frame); g < b.frame; g += this.skip) { this.write(this.fill(a, b, g), writer); }
+                return;
+            }
+            if ((b.frame - a.frame) <= 1) { return; }
+
+            // bisect on sampled frames while there are any between a and b,
+            // then on single frames to find the exact transition
+            int middle;
+            int first = this.next_sample(a.frame);
+            int last = this.next_sample(b.frame - 1) - this.skip;
+            if (first < b.frame) {
+                middle = this.start + this.skip * (int) Math.round(((a.frame + b.frame) / 2d - this.start) / this.skip);
+                middle = Math.max(first, Math.min(last, middle));
+            }
+            else { middle = (a.frame + b.frame) / 2; }
+            Probe m = this.probe(middle);
+            this.resolve(a, m, writer);
+            this.write(m.result, writer);
+            this.resolve(m, b, writer);
+        }
+
+        /** Gets the first sampled frame after the given frame. */
+        private int next_sample(int frame) { return this.start + ((frame - this.start) / this.skip + 1) * this.skip; }
+
+        /** Makes the result for a frame between two in-step decoded frames without decoding it. */
+        private ParserResult fill(Probe a, Probe b, int frame) {
+            double time = a.time + (b.time - a.time) * (frame - a.frame) / (b.frame - a.frame);
+            ParserResult result = new ParserResult(time, a.result.frame() + (frame - a.frame));
+            String key;
+            for (int i = 0; i < detectors.length; i++) {
+                key = detectors[i].get_key();
+                if ((i == this.clock) && !Objects.equals(a.result.get(key), b.result.get(key))) {
+                    result.put(key, seconds_to_clock((int) Math.round(clock_to_seconds(a.result.get(key)) + (time - a.time))));
+                }
+                else { result.put(key, a.result.get(key)); }
+            }
+            return result;
+        }
+    }
+
+
     private class PlayPause extends AbstractAction {
         private boolean isPaused = false;
         @Override
@@ -751,10 +1939,10 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
         public void actionPerformed(ActionEvent e) {
             this.isDown = true;
         }
-        public boolean activate(VideoCapture video) {
+        public boolean activate(FrameSource video) {
             if (this.isDown) {
-                double nextFrame = Math.max(0, video.get(CV_CAP_PROP_POS_FRAMES) - this.skip - 1);
-                video.set(CV_CAP_PROP_POS_FRAMES, nextFrame);
+                double nextFrame = Math.max(0, video.index() - this.skip - 1);
+                video.seek((int) nextFrame);
                 this.isDown = false;
                 return true;
             }
@@ -776,10 +1964,10 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
         public void actionPerformed(ActionEvent e) {
             this.isDown = true;
         }
-        public boolean activate(VideoCapture video) {
+        public boolean activate(FrameSource video) {
             if (this.isDown) {
-                double nextFrame = Math.min(video.get(CV_CAP_PROP_FRAME_COUNT)-1, video.get(CV_CAP_PROP_POS_FRAMES) + this.skip - 1);
-                video.set(CV_CAP_PROP_POS_FRAMES, nextFrame);
+                double nextFrame = Math.min(video.frames()-1, video.index() + this.skip - 1);
+                video.seek((int) nextFrame);
                 this.isDown = false;
                 return true;
             }
@@ -815,27 +2003,89 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
         private int i = 0;
         private int n;
         private int skip;
+        private int stop;
+        private int position = 0;
         private Frame frame = new Frame();
-        public FrameIterator(VideoParser outter, int skip){
+        private boolean ahead = false;
+        public FrameIterator(VideoParser outter, int skip){ this(outter, skip, 0, outter.frames); }
+        public FrameIterator(VideoParser outter, int skip, int start, int stop){
             this.outter = outter;
             this.skip = skip;
             this.n = outter.frames;
+            this.i = start;
+            this.stop = stop;
             if (outter.is_open()) { throw new RuntimeException("Cannot create an iterator on an open video."); }
             outter.open();
         }
 
         public boolean hasNext(){
-            if ((this.i + this.skip) < this.n) { return true; }
+            if (((this.i + this.skip) < this.n) && (this.i < this.stop)) { return true; }
             else { outter.close(); return false; }
         }
 
+        /**
+         * Checks whether the next frame of a growing video exists by reading
+         * it ahead, waiting for the video to grow whenever the read reaches
+         * the end of what has been written.
+         *
+         * @throws IOException when the video stops growing before it is complete
+         */
+        public boolean has_next_growing() throws IOException {
+            if (this.ahead) { return true; }
+            if (this.i >= this.stop) { outter.close(); return false; }
+            long start;
+            while (true) {
+                boolean complete = outter.growing.is_complete();
+                start = System.nanoTime();
+                outter.move_to(this.i, this.position);
+                if (outter.source.read(this.frame.mat())) { break; }
+
+                // the end of the written video. Reopen it once it grows, since
+                // the decoder wont read past where it hit the end
+                if (complete) { outter.close(); return false; }
+                outter.close();
+                outter.growing.await_growth();
+                outter.open();
+                this.position = 0;
+            }
+            outter.timings.record(ParseTimings.STAGE_DECODE, System.nanoTime() - start);
+            this.ahead = true;
+            return true;
+        }
+
         @SuppressWarnings("unchecked")
-        public Frame next(){
-            outter.video.read(this.frame.mat());
+        public Frame next(){ return next(this.frame); }
+
+        /** Reads the frame at the given index into the target and continues iterating from there. */
+        public Frame next(int index, Frame target){
+            if (index != this.i) { this.ahead = false; }
+            this.i = index;
+            return next(target);
+        }
+
+        /**
+         * Reads the next frame, copying its detection regions into the target.
+         * The full frame is only kept in the iterator's own frame.
+         */
+        public Frame next(Frame target){
+            long decoded;
+            if (this.ahead) {
+                this.ahead = false;
+                decoded = System.nanoTime();
+            }
+            else {
+                long start = System.nanoTime();
+                outter.move_to(this.i, this.position);
+                outter.source.read(this.frame.mat());
+                decoded = System.nanoTime();
+                outter.timings.record(ParseTimings.STAGE_DECODE, decoded - start);
+            }
             this.frame.update(outter.current_time(), outter.current_index());
+            target.update_regions(this.frame.mat(), outter.regions, this.frame.time(), this.frame.index());
+            outter.timings.record(ParseTimings.STAGE_ROI, System.nanoTime() - decoded);
+            this.position = this.i + 1;
             this.i += this.skip;
-            outter.video.set(CV_CAP_PROP_POS_FRAMES, this.i);
-            return this.frame;
+            return target;
         }
 
         public int get_frame_index() { return this.i; }
@@ -866,7 +2116,9 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
                     TASK_PARSE + ": parses video with existing detection objects and saves results to a file\n\n" +
                     TASK_PARSE_INT + ": parses training images by prompting user for image labels\n\n" +
                     TASK_PARSE_FILE + ": parses training images based on the provided frame/label file\n\n" +
-                    TASK_PARSE_AUTO + ": attempts to parse training images from exiting detection objects"
+                    TASK_PARSE_AUTO + ": attempts to parse training images from exiting detection objects\n\n" +
+                    TASK_SERVE + ": keeps detection objects loaded and parses videos requested as JSON lines on stdin (or --port); see ParseServer\n\n" +
+                    TASK_BATCH + ": parses every video listed as JSON lines in the parsing file, sharing detection objects between them; see BatchParser"
                 )
                 .build();
 
@@ -883,7 +2135,7 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
                 .required(false)
                 .hasArg(true)
                 .numberOfArgs(1)
-                .desc("input file when one is needed/allowed, i.e. for " + TASK_PARSE_FILE + " and " + TASK_PARSE + "; ignored otherwise")
+                .desc("input file when one is needed/allowed, i.e. for " + TASK_PARSE_FILE + ", " + TASK_PARSE + ", and " + TASK_BATCH + "; ignored otherwise")
                 .build();
 
         Option resultsFile = Option.builder("o")
@@ -910,6 +2162,51 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
                 .desc("number of frames to skip between parsing events; ignored when task is " + TASK_PLAY + " or " + TASK_PARSE_FILE + " (parses all frames); supercedes other skip")
                 .build();
 
+        Option workers = Option.builder("w")
+                .longOpt("workers")
+                .required(false)
+                .hasArg(true)
+                .numberOfArgs(1)
+                .desc("number of video segments to parse in parallel when task is " + TASK_PARSE + "; 0 uses one per processor; defaults to the settings file")
+                .build();
+
+        Option outputFormat = Option.builder("of")
+                .longOpt("output_format")
+                .required(false)
+                .hasArg(true)
+                .numberOfArgs(1)
+                .desc("format of the results file when task is " + TASK_PARSE + ", either " + ResultWriter.FORMAT_CSV + " or " + ResultWriter.FORMAT_BINARY + "; defaults to the settings file")
+                .build();
+
+        Option resume = Option.builder("r")
+                .longOpt("resume")
+                .required(false)
+                .hasArg(false)
+                .desc("when task is " + TASK_PARSE + ", continue from the checkpoint next to the output file if one matches this parse; otherwise starts over")
+                .build();
+
+        Option port = Option.builder("p")
+                .longOpt("port")
+                .required(false)
+                .hasArg(true)
+                .numberOfArgs(1)
+                .desc("local port to take parse jobs on when task is " + TASK_SERVE + "; jobs are read from stdin if not given")
+                .build();
+
+        Option growing = Option.builder("g")
+                .longOpt("growing")
+                .required(false)
+                .hasArg(false)
+                .desc("when task is " + TASK_PARSE + ", the video is still being written (e.g. downloaded); parse what has been written and wait for the rest until a file named like the video plus " + GrowingVideo.DONE_EXTENSION + " appears")
+                .build();
+
+        Option ffmpeg = Option.builder("ff")
+                .longOpt("ffmpeg")
+                .required(false)
+                .hasArg(false)
+                .desc("when task is " + TASK_PARSE + ", decode with a local ffmpeg (video_parser.ffmpeg in the settings file) that samples frames and crops them to the detection regions before handing them over")
+                .build();
+
         Options options = new Options();
         options.addOption(help);
         options.addOption(task);
@@ -918,6 +2215,12 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
         options.addOption(resultsFile);
         options.addOption(skip);
         options.addOption(skipFrames);
+        options.addOption(workers);
+        options.addOption(outputFormat);
+        options.addOption(resume);
+        options.addOption(port);
+        options.addOption(growing);
+        options.addOption(ffmpeg);
         return options;
     }
 
@@ -952,6 +2255,12 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
         double skip = DEFAULT_SKIP_SECONDS;
         boolean help = false;
         boolean skipIsFrames = false;
+        Integer workers = null;
+        String outputFormat = DEFAULT_OUTPUT_FORMAT;
+        boolean resume = false;
+        Integer port = null;
+        boolean growing = false;
+        boolean ffmpeg = false;
         Options options = build_command_line_options();
         CommandLineParser parser = new DefaultParser();
         try {
@@ -977,6 +2286,12 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
                     }
                 }
 
+                else if (task.equals(TASK_BATCH)) {
+                    if (!line.hasOption("parsing_file")) {
+                        throw new ParseException("Must provide a jobs file as the parsing file when parsing a batch.");
+                    }
+                }
+
                 else if (task.equals(TASK_PARSE)) {
                     if (!line.hasOption("output_file")) {
                         throw new ParseException("Must provide an output results file when parsing.");
@@ -1000,6 +2315,36 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
                 skipIsFrames = true;
             }
 
+            // get the number of parallel parsing workers
+            if (line.hasOption("workers")) {
+                workers = Integer.valueOf(line.getOptionValue("workers"));
+            }
+
+            // get the format to write results in
+            if (line.hasOption("output_format")) {
+                outputFormat = line.getOptionValue("output_format");
+            }
+
+            // check whether to resume from a checkpoint
+            if (line.hasOption("resume")) {
+                resume = true;
+            }
+
+            // check whether the video is still being written
+            if (line.hasOption("growing")) {
+                growing = true;
+            }
+
+            // check whether to decode with ffmpeg
+            if (line.hasOption("ffmpeg")) {
+                ffmpeg = true;
+            }
+
+            // get the port to serve on
+            if (line.hasOption("port")) {
+                port = Integer.valueOf(line.getOptionValue("port"));
+            }
+
         }
         catch( ParseException exp ) {
             System.err.println( "Parsing failed.  Reason: " + exp.getMessage() );
@@ -1013,14 +2358,39 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
             formatter.printHelp("video_parser [options] -v path/to/video/file", options);
         }
 
+        else if (task.equals(TASK_SERVE)) {
+            try {
+                ParseServer server = new ParseServer(SERVER_JOBS, SERVER_QUEUE, DEFAULT_SKIP_SECONDS, outputFormat);
+                if (port == null) { server.serve_stdin(); }
+                else { server.serve_socket(port); }
+            } catch (IOException | InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        else if (task.equals(TASK_BATCH)) {
+            try {
+                int threads = (BATCH_THREADS > 0) ? BATCH_THREADS : Runtime.getRuntime().availableProcessors();
+                BatchParser batch = new BatchParser(threads, BATCH_CHUNK_SECONDS, skip, skipIsFrames, outputFormat);
+                batch.add_jobs(parsingFile.getAbsolutePath());
+                int failed = batch.run();
+                if (failed > 0) { System.exit(1); }
+            } catch (IOException | InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
         else if (video != null){
             VideoParser P = null;
             try {
-                P = new VideoParser(video.getAbsolutePath());
+                if (growing) { P = new VideoParser(video.getAbsolutePath(), new GrowingVideo(video, GROWING_TIMEOUT)); }
+                else { P = new VideoParser(video.getAbsolutePath()); }
                 if (!skipIsFrames) {
                     skip = Math.round(P.fps*skip);
                     skipIsFrames = true;
                 }
+                if (workers != null) { P.set_workers(workers); }
+                if (ffmpeg) { P.set_ffmpeg(FFMPEG); }
 
             } catch (IOException e) {
                 e.printStackTrace();
@@ -1040,7 +2410,36 @@ public class VideoParser implements Iterable<VideoParser.Frame> {
                     if (parsingFile != null) {
                         validLabels = P.load_valid_labels(parsingFile.getAbsolutePath());
                     }
-                    VideoParser.save_detection_results(P.parse((int) skip, validLabels), resultsFile.getAbsolutePath());
+
+                    // pick up where a previous parse with the same settings
+                    // and models left off
+                    String resultsPath = resultsFile.getAbsolutePath();
+                    String model = P.get_model_hash();
+                    LinkedHashMap<String, String> settings = P.get_result_settings((int) skip, (parsingFile == null) ? null : parsingFile.getAbsolutePath());
+                    CheckpointWriter.Checkpoint checkpoint = resume ? CheckpointWriter.load(resultsPath) : null;
+                    if ((checkpoint != null) && !checkpoint.matches(outputFormat, (int) skip, model, settings)) {
+                        System.out.println("Checkpoint does not match this parse. Starting over.");
+                        checkpoint = null;
+                    }
+                    int start = 0;
+                    int written = 0;
+                    if (checkpoint != null) {
+                        checkpoint.truncate();
+                        start = checkpoint.next_frame();
+                        written = checkpoint.results();
+                        System.out.println(String.format("Resuming at frame %d after %d results.", start, written));
+                    }
+
+                    ResultWriter writer = ResultWriter.make(outputFormat, resultsPath, P.get_detector_keys(), checkpoint != null);
+                    CheckpointWriter checkpointer = null;
+                    if (CHECKPOINT_INTERVAL > 0) {
+                        checkpointer = new CheckpointWriter(writer, resultsPath, outputFormat, (int) skip, model, settings, CHECKPOINT_INTERVAL, written);
+                        writer = checkpointer;
+                    }
+                    try { P.parse((int) skip, validLabels, writer, P.workers, start); }
+                    finally { writer.close(); }
+                    if (checkpointer != null) { checkpointer.finish(); }
+                    P.get_timings().save(resultsPath + ParseTimings.EXTENSION);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }